@@ -0,0 +1,471 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+/**
+ * Aho-Corasick automaton compiled from the words of a Trie, for finding every
+ * occurrence of every word in a text in a single pass.
+ * States are numbered breadth-first, so the children of a state are consecutive and
+ * the goto function is two arrays: state s's children are first[s] to first[s + 1],
+ * with their letters sorted in labels. A failure link leads to the state for the
+ * longest proper suffix of the current path that is also a path, and an output link
+ * to the nearest such suffix that is a word, so the words ending at a position are
+ * listed without walking failure links that hold none. The root's transitions for
+ * ASCII are also kept in a direct table, since most failures end at the root.
+ * Matches are reported through a Listener with the terms held by the automaton, so
+ * scanning allocates nothing per match.
+ * @author William Zhuang
+ */
+public class AhoCorasick {
+    /** Receives matches as they are found. */
+    public interface Listener {
+        /**
+          * @param start Offset of the first character (or byte, for files) of the match.
+          * @param term Word that occurs there.
+          */
+        void match(long start, String term);
+    }
+
+    private final String[] terms;
+    private final int[] termLengths;
+    /** Word ending at each state, or -1. */
+    private final int[] termOf;
+    private final int[] first;
+    private final char[] labels;
+    private final int[] fail;
+    /** Nearest state on the failure chain that ends a word, or 0 for none. */
+    private final int[] output;
+    private final int[] rootNext;
+    private final int maxLength;
+
+    /**
+      * Compiles the automaton for every word in a Trie.
+      * @param trie Trie whose words are searched for.
+      */
+    public AhoCorasick(Trie trie) {
+        ArrayList<String> words = new ArrayList<String>();
+        for (String word : trie.match("*")) {
+            words.add(word);
+        }
+        terms = words.toArray(new String[0]);
+        termLengths = new int[terms.length];
+        int longest = 0;
+        for (int i = 0; i < terms.length; i += 1) {
+            termLengths[i] = terms[i].length();
+            longest = Math.max(longest, terms[i].length());
+        }
+        maxLength = longest;
+
+        // Breadth-first over ranges of sorted words sharing their first depth chars,
+        // as in SuccinctTrie; every range becomes a state.
+        int capacity = 16;
+        int[] lo = new int[capacity];
+        int[] hi = new int[capacity];
+        int[] depth = new int[capacity];
+        int[] parent = new int[capacity];
+        char[] edge = new char[capacity];
+        int[] firsts = new int[capacity];
+        int[] termIds = new int[capacity];
+        hi[0] = terms.length;
+        int tail = 1;
+        for (int head = 0; head < tail; head += 1) {
+            int start = lo[head];
+            int end = hi[head];
+            int d = depth[head];
+            termIds[head] = -1;
+            if (head > 0 && terms[start].length() == d) {
+                termIds[head] = start;
+                start += 1;
+            }
+            firsts[head] = tail;
+            int i = start;
+            while (i < end) {
+                char c = terms[i].charAt(d);
+                int j = i + 1;
+                while (j < end && terms[j].charAt(d) == c) {
+                    j += 1;
+                }
+                if (tail == capacity) {
+                    capacity *= 2;
+                    lo = Arrays.copyOf(lo, capacity);
+                    hi = Arrays.copyOf(hi, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                    parent = Arrays.copyOf(parent, capacity);
+                    edge = Arrays.copyOf(edge, capacity);
+                    firsts = Arrays.copyOf(firsts, capacity);
+                    termIds = Arrays.copyOf(termIds, capacity);
+                }
+                lo[tail] = i;
+                hi[tail] = j;
+                depth[tail] = d + 1;
+                parent[tail] = head;
+                edge[tail] = c;
+                tail += 1;
+                i = j;
+            }
+        }
+        int states = tail;
+        first = Arrays.copyOf(firsts, states + 1);
+        first[states] = states;
+        labels = Arrays.copyOf(edge, states);
+        termOf = Arrays.copyOf(termIds, states);
+
+        rootNext = new int[128];
+        for (int s = first[0]; s < first[1]; s += 1) {
+            if (labels[s] < 128) {
+                rootNext[labels[s]] = s;
+            }
+        }
+
+        // Parents precede children in breadth-first order, so one pass suffices.
+        fail = new int[states];
+        output = new int[states];
+        for (int s = 1; s < states; s += 1) {
+            int p = parent[s];
+            fail[s] = p == 0 ? 0 : step(fail[p], labels[s]);
+            int f = fail[s];
+            output[s] = termOf[f] >= 0 ? f : output[f];
+        }
+    }
+
+    /**
+      * @param s State.
+      * @param c Letter.
+      * @return Child of s for c, or -1.
+      */
+    private int child(int s, char c) {
+        if (s == 0) {
+            if (c < 128) {
+                int t = rootNext[c];
+                return t == 0 ? -1 : t;
+            }
+        }
+        int l = first[s];
+        int h = first[s + 1] - 1;
+        while (l <= h) {
+            int m = (l + h) >>> 1;
+            if (labels[m] < c) {
+                l = m + 1;
+            } else if (labels[m] > c) {
+                h = m - 1;
+            } else {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    /**
+      * Follows failure links until a transition for c exists.
+      * @param s Current state.
+      * @param c Next character.
+      * @return Next state.
+      */
+    private int step(int s, char c) {
+        while (true) {
+            int t = child(s, c);
+            if (t >= 0) {
+                return t;
+            }
+            if (s == 0) {
+                return 0;
+            }
+            s = fail[s];
+        }
+    }
+
+    /**
+      * Reports every word ending at state s.
+      * @param s Current state.
+      * @param end Offset one past the character just read.
+      * @param listener Receives the matches.
+      */
+    private void report(int s, long end, Listener listener) {
+        if (termOf[s] < 0) {
+            s = output[s];
+        }
+        while (s != 0) {
+            int t = termOf[s];
+            listener.match(end - termLengths[t], terms[t]);
+            s = output[s];
+        }
+    }
+
+    /**
+      * Finds every occurrence of every word in a text. Offsets are char indices.
+      * @param text Text to scan.
+      * @param listener Receives the matches, in order of their end.
+      */
+    public void scan(CharSequence text, Listener listener) {
+        int s = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            s = step(s, text.charAt(i));
+            if (termOf[s] >= 0 || output[s] != 0) {
+                report(s, i + 1, listener);
+            }
+        }
+    }
+
+    /**
+      * Finds every occurrence of every word in a stream, in one pass over a fixed
+      * buffer. Offsets are char indices from the start of the stream.
+      * @param in Stream to scan; it is read to the end but not closed.
+      * @param listener Receives the matches, in order of their end.
+      * @throws IOException If the stream cannot be read.
+      */
+    public void scan(Reader in, Listener listener) throws IOException {
+        char[] buf = new char[1 << 16];
+        long offset = 0;
+        int s = 0;
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            for (int i = 0; i < n; i += 1) {
+                s = step(s, buf[i]);
+                if (termOf[s] >= 0 || output[s] != 0) {
+                    report(s, offset + i + 1, listener);
+                }
+            }
+            offset += n;
+        }
+    }
+
+    /**
+      * Finds every occurrence of every word in a UTF-8 file, memory-mapped a region at
+      * a time and decoded as it is scanned. Offsets are byte offsets in the file.
+      * Malformed input is read as U+FFFD exactly as new String(bytes, UTF_8) reads it:
+      * one replacement for each maximal prefix of a valid sequence, where overlong
+      * forms, surrogates and values above U+10FFFF are not valid.
+      * @param file File to scan.
+      * @param listener Receives the matches, in order of their end.
+      * @throws IOException If the file cannot be read.
+      */
+    public void scan(Path file, Listener listener) throws IOException {
+        FileScan scan = new FileScan(listener);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int codePoint = 0;
+            int pending = 0;
+            // Range of the next continuation byte; only the second byte of a sequence is
+            // narrower than 0x80-0xBF, which rules out overlong forms and values above
+            // U+10FFFF before they are decoded.
+            int lo = 0x80;
+            int hi = 0xBF;
+            long charStart = 0;
+            for (long base = 0; base < size; base += 1 << 30) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                                                   Math.min(1 << 30, size - base));
+                int limit = buf.limit();
+                for (int i = 0; i < limit; i += 1) {
+                    int b = buf.get(i) & 0xFF;
+                    if (pending > 0) {
+                        if (b >= lo && b <= hi) {
+                            codePoint = (codePoint << 6) | (b & 0x3F);
+                            pending -= 1;
+                            lo = 0x80;
+                            hi = 0xBF;
+                            if (pending == 0) {
+                                scan.read(codePoint, charStart);
+                            }
+                            continue;
+                        }
+                        // Truncated sequence: read a replacement, then start over at b.
+                        scan.read('\uFFFD', charStart);
+                        pending = 0;
+                        lo = 0x80;
+                        hi = 0xBF;
+                    }
+                    charStart = base + i;
+                    if (b < 0x80) {
+                        scan.read(b, charStart);
+                    } else if (b >= 0xC2 && b <= 0xDF) {
+                        codePoint = b & 0x1F;
+                        pending = 1;
+                    } else if (b >= 0xE0 && b <= 0xEF) {
+                        codePoint = b & 0x0F;
+                        pending = 2;
+                        lo = b == 0xE0 ? 0xA0 : 0x80;
+                    } else if (b >= 0xF0 && b <= 0xF4) {
+                        codePoint = b & 0x07;
+                        pending = 3;
+                        lo = b == 0xF0 ? 0x90 : 0x80;
+                        hi = b == 0xF4 ? 0x8F : 0xBF;
+                    } else {
+                        scan.read('\uFFFD', charStart);
+                    }
+                }
+            }
+            if (pending > 0) {
+                scan.read('\uFFFD', charStart);
+            }
+        }
+    }
+
+    /**
+      * State of a file scan: the automaton's state, the number of chars read, and the
+      * byte offset at which each of the last maxLength chars started, through which
+      * matches' char offsets are translated into byte offsets.
+      */
+    private class FileScan implements Listener {
+        private final Listener listener;
+        private final long[] starts;
+        private final int mask;
+        private int state;
+        private long chars;
+
+        /**
+          * @param listener0 Listener receiving byte offsets.
+          */
+        FileScan(Listener listener0) {
+            listener = listener0;
+            int ringSize = Integer.highestOneBit(Math.max(1, maxLength)) * 2;
+            starts = new long[ringSize];
+            mask = ringSize - 1;
+        }
+
+        /**
+          * Reads one decoded code point. Surrogates, which only malformed input decodes
+          * to, are read as U+FFFD like the rest of it.
+          * @param codePoint Code point.
+          * @param byteStart Byte offset of its first byte.
+          */
+        void read(int codePoint, long byteStart) {
+            if (Character.isBmpCodePoint(codePoint)) {
+                read(Character.isSurrogate((char) codePoint) ? '\uFFFD' : (char) codePoint,
+                     byteStart);
+            } else {
+                read(Character.highSurrogate(codePoint), byteStart);
+                read(Character.lowSurrogate(codePoint), byteStart);
+            }
+        }
+
+        /**
+          * Reads one char.
+          * @param c Char.
+          * @param byteStart Byte offset of the code point it belongs to.
+          */
+        void read(char c, long byteStart) {
+            starts[(int) chars & mask] = byteStart;
+            state = step(state, c);
+            chars += 1;
+            if (termOf[state] >= 0 || output[state] != 0) {
+                report(state, chars, this);
+            }
+        }
+
+        public void match(long start, String term) {
+            listener.match(starts[(int) start & mask], term);
+        }
+    }
+
+    /** @return Number of states, including the root. */
+    public int stateCount() {
+        return termOf.length;
+    }
+
+    /** @return Estimated heap used by the automaton's arrays, excluding the terms. */
+    public long bytes() {
+        int states = termOf.length;
+        return 4 * TrieStats.arrayBytes(states, 4) + TrieStats.arrayBytes(states + 1, 4)
+               + TrieStats.arrayBytes(states, 2) + TrieStats.arrayBytes(rootNext.length, 4)
+               + TrieStats.arrayBytes(terms.length, 4) + TrieStats.arrayBytes(terms.length, TrieStats.REF);
+    }
+
+    /**
+      * Builds the automaton from a word list and scans a text file with each entry
+      * point, reporting MB/s and checking that they find the same matches.
+      * Without a text file, scans a generated one of about 64 MB.
+      * Usage: java AhoCorasick dictionary [text]
+      * @param args Word list and optional text file.
+      */
+    public static void main(String[] args) throws IOException {
+        Trie trie = new Trie();
+        In in = new In(args[0]);
+        ArrayList<String> words = new ArrayList<String>();
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty() && !word.contains(" ")) {
+                trie.insert(word);
+                words.add(word);
+            }
+        }
+        AhoCorasick automaton = new AhoCorasick(trie);
+        System.out.printf("%,d terms, %,d states, %,d bytes%n", words.size(),
+                          automaton.stateCount(), automaton.bytes());
+
+        Path text;
+        boolean generated = args.length < 2;
+        if (generated) {
+            // Dictionary words separated by spaces, with some random lowercase noise.
+            text = Files.createTempFile("aho", ".txt");
+            Random random = new Random(61);
+            StringBuilder sb = new StringBuilder(1 << 20);
+            try (Writer out = Files.newBufferedWriter(text)) {
+                for (long written = 0; written < 64L << 20; written += sb.length()) {
+                    sb.setLength(0);
+                    while (sb.length() < 1 << 20) {
+                        if (random.nextInt(4) == 0) {
+                            for (int j = 0; j < 6; j += 1) {
+                                sb.append((char) ('a' + random.nextInt(26)));
+                            }
+                        } else {
+                            sb.append(words.get(random.nextInt(words.size())));
+                        }
+                        sb.append(random.nextInt(20) == 0 ? '\n' : ' ');
+                    }
+                    out.append(sb);
+                }
+            }
+        } else {
+            text = Paths.get(args[1]);
+        }
+
+        try {
+            double mb = Files.size(text) / 1e6;
+            long[] counts = new long[3];
+            long[] sums = new long[3];
+            Listener[] listeners = new Listener[3];
+            for (int k = 0; k < 3; k += 1) {
+                final int which = k;
+                listeners[k] = (start, term) -> {
+                    counts[which] += 1;
+                    sums[which] += term.length();
+                };
+            }
+            for (int round = 0; round < 3; round += 1) {
+                Arrays.fill(counts, 0);
+                Arrays.fill(sums, 0);
+                long start = System.nanoTime();
+                automaton.scan(text, listeners[0]);
+                long mapped = System.nanoTime() - start;
+                start = System.nanoTime();
+                try (Reader reader = Files.newBufferedReader(text)) {
+                    automaton.scan(reader, listeners[1]);
+                }
+                long read = System.nanoTime() - start;
+                String all = new String(Files.readAllBytes(text), StandardCharsets.UTF_8);
+                start = System.nanoTime();
+                automaton.scan(all, listeners[2]);
+                long sequence = System.nanoTime() - start;
+                if (counts[0] != counts[1] || counts[1] != counts[2] || sums[0] != sums[2]) {
+                    throw new IllegalStateException("Scans disagree: " + Arrays.toString(counts));
+                }
+                System.out.printf("%.0f MB, %,d matches: mmap %.0f MB/s, Reader %.0f MB/s, "
+                                  + "CharSequence %.0f MB/s%n", mb, counts[0],
+                                  mb / (mapped / 1e9), mb / (read / 1e9), mb / (sequence / 1e9));
+            }
+        } finally {
+            if (generated) {
+                Files.delete(text);
+            }
+        }
+    }
+}
@@ -1,10 +1,30 @@
-import java.util.Scanner;
-import java.util.HashSet;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.PriorityQueue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 /** AlphabetSort. Sorts a list of words into alphabetical order based on 
   * a permutation of some alphabet from stdin.
+  * Usage: java AlphabetSort [--duplicates] [trie|radix] &lt; input
+  *        java AlphabetSort [--duplicates] parallel [threads] &lt; input
+  *        java AlphabetSort [--duplicates] external [runWords] [fanIn] &lt; input
+  *        java AlphabetSort bench [maxWords]
+  * The trie engine is the default. Every engine counts the occurrences of each word
+  * and prints it once, or as many times as it occurred with --duplicates, and skips
+  * words with letters outside the alphabet. Input is read as UTF-8.
   * @author William Zhuang
   * Citation: http://stackoverflow.com/questions/13095983/getting-input-from-stdin 
   * http://stackoverflow.com/questions/5235401/split-string-into-array-of-character-strings
@@ -13,35 +33,573 @@ public class AlphabetSort {
 
     /** Executes AlphabetSort and sorts a list of words into alphabetical order. 
       * @param args 
+      * @throws IOException If the output cannot be written.
       */
-    public static void main(String[] args) {
-        SortedTrie trie = new SortedTrie();
+    public static void main(String[] args) throws IOException {
+        boolean duplicates = args.length > 0 && args[0].equals("--duplicates");
+        if (duplicates) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        String engine = args.length > 0 ? args[0] : "trie";
+        if (engine.equals("bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+            return;
+        }
+        if (engine.equals("external")) {
+            int runWords = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+            int fanIn = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            new ExternalSort(runWords, fanIn, duplicates).sort(System.in, out);
+            out.flush();
+            return;
+        }
+        if (!engine.equals("trie") && !engine.equals("radix") && !engine.equals("parallel")) {
+            throw new IllegalArgumentException("Unknown engine " + engine
+                                               + "; use trie, radix, parallel or external.");
+        }
 
-        Scanner in = new Scanner(System.in);
-        String alphabet = in.nextLine();
+        LineReader in = new LineReader(System.in);
+        String alphabet = in.readLine();
+        String word = alphabet == null ? null : in.readLine();
+        if (word == null) {
+            throw new IllegalArgumentException("No words or alphabet are given.");
+        }
+        checkAlphabet(alphabet);
 
-        HashSet<String> charactersHash = new HashSet<String>();
-        String[] charactersArray = alphabet.split("(?!^)");
-        charactersHash.addAll(Arrays.asList(charactersArray));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        if (!engine.equals("trie")) {
+            int[] rank = RadixSort.ranks(alphabet);
+            WordCounts counts = new WordCounts();
+            for (; word != null; word = in.readLine()) {
+                if (word.isEmpty()) {
+                    throw new IllegalArgumentException("Null or empty strings"  
+                                                       + "cannot be added to a Trie.");
+                }
+                if (RadixSort.inAlphabet(word, rank)) {
+                    counts.add(word);
+                }
+            }
+            String[] sorted = counts.words();
+            if (engine.equals("parallel")) {
+                int threads = args.length > 1 ? Integer.parseInt(args[1])
+                                              : Runtime.getRuntime().availableProcessors();
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                ParallelSort.write(sorted, rank, pool, out, duplicates ? counts : null);
+                pool.shutdown();
+            } else {
+                RadixSort.sort(sorted, rank);
+                for (String s : sorted) {
+                    for (int n = duplicates ? counts.count(s) : 1; n > 0; n -= 1) {
+                        out.append(s).append('\n');
+                    }
+                }
+            }
+        } else {
+            SortedTrie trie = new SortedTrie();
+            for (; word != null; word = in.readLine()) {
+                trie.insert(word);
+            }
+            trie.alphabetize(alphabet, out, duplicates);
+        }
+        out.flush();
+    }
 
-        if (charactersArray.length != charactersHash.size()) {
-            throw new IllegalArgumentException("A letter appears multiple times in the alphabet.");
+    /**
+      * Checks that no letter appears twice in an alphabet, with one bit per char.
+      * @param alphabet Alphabet to check.
+      */
+    static void checkAlphabet(String alphabet) {
+        long[] seen = new long[1 << 10];
+        for (int i = 0; i < alphabet.length(); i += 1) {
+            char c = alphabet.charAt(i);
+            long bit = 1L << c;
+            if ((seen[c >>> 6] & bit) != 0) {
+                throw new IllegalArgumentException("A letter appears multiple times in the alphabet.");
+            }
+            seen[c >>> 6] |= bit;
         }
+    }
 
-        if (!in.hasNextLine()) {
-            throw new IllegalArgumentException("No words or alphabet are given.");
+    /**
+      * Reads UTF-8 lines from a stream through a byte buffer, without the regular
+      * expressions Scanner uses. A line that is all ASCII is copied straight into a
+      * String; others are decoded. Lines end at \n, with a \r before it dropped; a
+      * lone \r is part of the line.
+      */
+    static class LineReader {
+        private final InputStream in;
+        private final byte[] buf;
+        private int pos;
+        private int limit;
+        /** Start of a line that runs past the end of buf. */
+        private byte[] carry = new byte[256];
+
+        /**
+          * @param in0 Stream to read; it is not closed.
+          */
+        LineReader(InputStream in0) {
+            this(in0, 1 << 16);
         }
 
-        while (in.hasNextLine()) {
-            String output = in.nextLine();
-            trie.insert(output);
+        /**
+          * @param in0 Stream to read; it is not closed.
+          * @param bufferSize Bytes read from the stream at a time.
+          */
+        LineReader(InputStream in0, int bufferSize) {
+            in = in0;
+            buf = new byte[bufferSize];
         }
 
-        String[] output = trie.alphabetize(alphabet);
-        
-        ArrayList<String> arrayList = new ArrayList<String>(Arrays.asList(output));
-        for (String x : arrayList) {
-            System.out.println(x);
+        /**
+          * @return Next line without its terminator, or null at the end of the stream.
+          * @throws IOException If the stream cannot be read.
+          */
+        String readLine() throws IOException {
+            int carried = 0;
+            boolean partial = false;
+            int bits = 0;
+            while (true) {
+                if (pos == limit) {
+                    limit = Math.max(0, in.read(buf, 0, buf.length));
+                    pos = 0;
+                    if (limit == 0) {
+                        return partial ? decode(carry, carried, bits) : null;
+                    }
+                }
+                int start = pos;
+                int i = pos;
+                while (i < limit && buf[i] != '\n') {
+                    // Sign-extended, so any byte above 0x7F makes bits negative.
+                    bits |= buf[i];
+                    i += 1;
+                }
+                if (i < limit) {
+                    pos = i + 1;
+                    if (!partial) {
+                        return decode(buf, start, i - start, bits);
+                    }
+                    carried = append(start, i, carried);
+                    return decode(carry, carried, bits);
+                }
+                carried = append(start, limit, carried);
+                partial = true;
+                pos = limit;
+            }
+        }
+
+        /**
+          * Copies buf[from, to) to the end of carry.
+          * @param from First byte.
+          * @param to One past the last byte.
+          * @param carried Bytes already in carry.
+          * @return Bytes in carry afterwards.
+          */
+        private int append(int from, int to, int carried) {
+            int n = carried + to - from;
+            if (n > carry.length) {
+                carry = Arrays.copyOf(carry, Math.max(n, 2 * carry.length));
+            }
+            System.arraycopy(buf, from, carry, carried, to - from);
+            return n;
+        }
+
+        /**
+          * @param bytes Array holding the line at its start.
+          * @param length Length of the line.
+          * @param bits Bitwise or of its bytes.
+          * @return The line.
+          */
+        private static String decode(byte[] bytes, int length, int bits) {
+            return decode(bytes, 0, length, bits);
+        }
+
+        /**
+          * @param bytes Array holding the line.
+          * @param from First byte of the line.
+          * @param length Length of the line, including any \r.
+          * @param bits Bitwise or of its bytes.
+          * @return The line.
+          */
+        private static String decode(byte[] bytes, int from, int length, int bits) {
+            if (length > 0 && bytes[from + length - 1] == '\r') {
+                length -= 1;
+            }
+            if (bits >= 0) {
+                return new String(bytes, from, length, StandardCharsets.ISO_8859_1);
+            }
+            return new String(bytes, from, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+      * Counts occurrences of words in an open-addressing table, so that a repeated
+      * word costs a count rather than another String.
+      */
+    static class WordCounts {
+        private String[] keys = new String[64];
+        private int[] counts = new int[64];
+        private int size;
+
+        /**
+          * @param word Word to count once more.
+          */
+        void add(String word) {
+            int i = slot(keys, word);
+            if (keys[i] == null) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    i = slot(keys, word);
+                }
+                keys[i] = word;
+                size += 1;
+            }
+            counts[i] += 1;
+        }
+
+        /**
+          * @param word Word to look up.
+          * @return Number of times word was added.
+          */
+        int count(String word) {
+            int i = slot(keys, word);
+            return keys[i] == null ? 0 : counts[i];
+        }
+
+        /** @return Number of distinct words. */
+        int size() {
+            return size;
+        }
+
+        /** @return The distinct words, in no particular order. */
+        String[] words() {
+            String[] words = new String[size];
+            int n = 0;
+            for (String key : keys) {
+                if (key != null) {
+                    words[n] = key;
+                    n += 1;
+                }
+            }
+            return words;
+        }
+
+        /** Removes every word. */
+        void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(counts, 0);
+            size = 0;
+        }
+
+        /**
+          * @param table Keys of a table.
+          * @param word Word to find.
+          * @return Slot holding word, or the empty slot where it belongs.
+          */
+        private static int slot(String[] table, String word) {
+            int mask = table.length - 1;
+            int h = word.hashCode() * 0x9E3779B9;
+            int i = (h ^ h >>> 16) & mask;
+            while (table[i] != null && !table[i].equals(word)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /** Doubles the table. */
+        private void grow() {
+            String[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new String[2 * oldKeys.length];
+            counts = new int[keys.length];
+            for (int j = 0; j < oldKeys.length; j += 1) {
+                if (oldKeys[j] != null) {
+                    int i = slot(keys, oldKeys[j]);
+                    keys[i] = oldKeys[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+    }
+
+    /**
+      * Times the in-memory engines on random words over random alphabets of 4 to 1000
+      * letters, for 10,000 words up to maxWords, and checks that they print the same
+      * words. The parallel engine runs on the common pool.
+      * Words are 1 to 12 letters long. The trie engine is skipped above 4 million words,
+      * where its HashMap per node no longer fits a default heap.
+      * @param maxWords Largest number of words to sort.
+      * @throws IOException Never; the parallel engine writes to a StringWriter.
+      */
+    private static void benchmark(int maxWords) throws IOException {
+        Random random = new Random(61);
+        System.out.printf("%d processors%n", ForkJoinPool.commonPool().getParallelism());
+        System.out.printf("%8s %10s %12s %12s %12s%n", "alphabet", "words", "trie ms", "radix ms",
+                          "parallel ms");
+        for (int size : new int[] {4, 26, 100, 1000}) {
+            // A random permutation of size characters, not in char order.
+            char[] letters = new char[size];
+            for (int i = 0; i < size; i += 1) {
+                letters[i] = (char) ('!' + i);
+            }
+            for (int i = size - 1; i > 0; i -= 1) {
+                int j = random.nextInt(i + 1);
+                char t = letters[i];
+                letters[i] = letters[j];
+                letters[j] = t;
+            }
+            String alphabet = new String(letters);
+            int[] rank = RadixSort.ranks(alphabet);
+
+            for (int n = 10000; n <= maxWords; n *= 10) {
+                String[] words = new String[n];
+                char[] buf = new char[12];
+                for (int i = 0; i < n; i += 1) {
+                    int length = 1 + random.nextInt(buf.length);
+                    for (int j = 0; j < length; j += 1) {
+                        buf[j] = letters[random.nextInt(size)];
+                    }
+                    words[i] = new String(buf, 0, length);
+                }
+
+                long trieTime = -1;
+                ArrayList<String> fromTrie = new ArrayList<String>();
+                if (n <= 4000000) {
+                    long start = System.nanoTime();
+                    SortedTrie trie = new SortedTrie();
+                    for (String word : words) {
+                        trie.insert(word);
+                    }
+                    trie.alphabetize(alphabet, word -> fromTrie.add(word.toString()));
+                    trieTime = System.nanoTime() - start;
+                }
+
+                long start = System.nanoTime();
+                String[] sorted = words.clone();
+                RadixSort.sort(sorted, rank);
+                int distinct = 0;
+                for (int i = 0; i < n; i += 1) {
+                    if (i == 0 || !sorted[i].equals(sorted[distinct - 1])) {
+                        sorted[distinct] = sorted[i];
+                        distinct += 1;
+                    }
+                }
+                long radixTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                StringWriter parallel = new StringWriter();
+                ParallelSort.write(words.clone(), rank, ForkJoinPool.commonPool(), parallel);
+                long parallelTime = System.nanoTime() - start;
+
+                if (trieTime >= 0 && !fromTrie.equals(Arrays.asList(sorted).subList(0, distinct))) {
+                    throw new IllegalStateException("Engines disagree for alphabet size " + size);
+                }
+                StringBuilder expected = new StringBuilder();
+                for (int i = 0; i < distinct; i += 1) {
+                    expected.append(sorted[i]).append('\n');
+                }
+                if (!expected.toString().equals(parallel.toString())) {
+                    throw new IllegalStateException("Parallel engine disagrees for alphabet size "
+                                                    + size);
+                }
+                System.out.printf("%8d %,10d %12s %12.1f %12.1f%n", size, n,
+                                  trieTime < 0 ? "-" : String.format("%.1f", trieTime / 1e6),
+                                  radixTime / 1e6, parallelTime / 1e6);
+            }
+        }
+    }
+
+    /**
+      * Three-way radix quicksort (Bentley and Sedgewick) over Strings, ordered by a
+      * permutation of an alphabet. Characters are compared through a rank table indexed
+      * by char, and a string that ends sorts before any of its extensions. Each pass
+      * splits a range into the strings less than, equal to and greater than a pivot at
+      * one character, so large alphabets need no count array per bucket, unlike LSD or
+      * MSD counting sorts. Small ranges are finished by insertion sort.
+      */
+    static class RadixSort {
+        /** Ranges of at most this many strings are insertion sorted. */
+        private static final int CUTOFF = 15;
+
+        /**
+          * Builds the rank table of an alphabet.
+          * @param alphabet Letters in the order to sort by, each at most once.
+          * @return Table with the position of every letter, and -1 for other chars.
+          */
+        static int[] ranks(String alphabet) {
+            int max = 0;
+            for (int i = 0; i < alphabet.length(); i += 1) {
+                max = Math.max(max, alphabet.charAt(i));
+            }
+            int[] rank = new int[max + 1];
+            Arrays.fill(rank, -1);
+            for (int i = 0; i < alphabet.length(); i += 1) {
+                char c = alphabet.charAt(i);
+                if (rank[c] >= 0) {
+                    throw new IllegalArgumentException("A letter appears multiple times in the alphabet.");
+                }
+                rank[c] = i;
+            }
+            return rank;
+        }
+
+        /**
+          * @param word Word to check.
+          * @param rank Rank table from ranks.
+          * @return Whether every letter of word is in the alphabet.
+          */
+        static boolean inAlphabet(String word, int[] rank) {
+            for (int i = 0; i < word.length(); i += 1) {
+                char c = word.charAt(i);
+                if (c >= rank.length || rank[c] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+          * Sorts words in place. The words are shuffled first, so sorted or reversed
+          * input cannot make the partitions degenerate.
+          * @param words Words whose letters are all in the alphabet.
+          * @param rank Rank table from ranks.
+          */
+        static void sort(String[] words, int[] rank) {
+            sortRange(words, 0, words.length, 0, rank);
+        }
+
+        /**
+          * Sorts words[from, to) in place, after shuffling the range.
+          * @param words Words whose letters are all in the alphabet.
+          * @param from First index of the range.
+          * @param to One past the last index of the range.
+          * @param d Number of leading letters the words in the range share.
+          * @param rank Rank table from ranks.
+          */
+        static void sortRange(String[] words, int from, int to, int d, int[] rank) {
+            Random random = new Random(61);
+            for (int i = to - 1; i > from; i -= 1) {
+                swap(words, i, from + random.nextInt(i - from + 1));
+            }
+            sort(words, from, to - 1, d, rank);
+        }
+
+        /**
+          * @param s String.
+          * @param d Position.
+          * @param rank Rank table.
+          * @return Rank of the dth letter of s, or -1 if s has only d letters.
+          */
+        static int at(String s, int d, int[] rank) {
+            return d < s.length() ? rank[s.charAt(d)] : -1;
+        }
+
+        /**
+          * Sorts words[lo..hi], which share their first d letters. Recurses on the less
+          * and greater ranges and loops on the equal one, so the call depth does not
+          * grow with the length of the words.
+          * @param words Words being sorted.
+          * @param lo First index of the range.
+          * @param hi Last index of the range.
+          * @param d Number of letters already known to be equal.
+          * @param rank Rank table.
+          */
+        private static void sort(String[] words, int lo, int hi, int d, int[] rank) {
+            while (hi - lo >= CUTOFF) {
+                int lt = lo;
+                int gt = hi;
+                int v = at(words[lo], d, rank);
+                int i = lo + 1;
+                while (i <= gt) {
+                    int t = at(words[i], d, rank);
+                    if (t < v) {
+                        swap(words, lt, i);
+                        lt += 1;
+                        i += 1;
+                    } else if (t > v) {
+                        swap(words, i, gt);
+                        gt -= 1;
+                    } else {
+                        i += 1;
+                    }
+                }
+                sort(words, lo, lt - 1, d, rank);
+                sort(words, gt + 1, hi, d, rank);
+                if (v < 0) {
+                    // Every word in the equal range has ended, so they are all equal.
+                    return;
+                }
+                lo = lt;
+                hi = gt;
+                d += 1;
+            }
+            insertionSort(words, lo, hi, d, rank);
+        }
+
+        /**
+          * @param words Words being sorted.
+          * @param lo First index of the range.
+          * @param hi Last index of the range.
+          * @param d Number of letters already known to be equal.
+          * @param rank Rank table.
+          */
+        private static void insertionSort(String[] words, int lo, int hi, int d, int[] rank) {
+            for (int i = lo + 1; i <= hi; i += 1) {
+                String s = words[i];
+                int j = i;
+                while (j > lo && less(s, words[j - 1], d, rank)) {
+                    words[j] = words[j - 1];
+                    j -= 1;
+                }
+                words[j] = s;
+            }
+        }
+
+        /**
+          * @param a First string.
+          * @param b Second string.
+          * @param rank Rank table.
+          * @return Negative, zero or positive as a sorts before, with or after b.
+          */
+        static int compare(String a, String b, int[] rank) {
+            int n = Math.min(a.length(), b.length());
+            for (int i = 0; i < n; i += 1) {
+                int x = rank[a.charAt(i)];
+                int y = rank[b.charAt(i)];
+                if (x != y) {
+                    return x - y;
+                }
+            }
+            return a.length() - b.length();
+        }
+
+        /**
+          * @param a First string.
+          * @param b Second string.
+          * @param d Number of letters already known to be equal.
+          * @param rank Rank table.
+          * @return Whether a sorts strictly before b.
+          */
+        private static boolean less(String a, String b, int d, int[] rank) {
+            int n = Math.min(a.length(), b.length());
+            for (int i = d; i < n; i += 1) {
+                int x = rank[a.charAt(i)];
+                int y = rank[b.charAt(i)];
+                if (x != y) {
+                    return x < y;
+                }
+            }
+            return a.length() < b.length();
+        }
+
+        /**
+          * @param words Array.
+          * @param i First index.
+          * @param j Second index.
+          */
+        private static void swap(String[] words, int i, int j) {
+            String t = words[i];
+            words[i] = words[j];
+            words[j] = t;
         }
     }
 
@@ -49,7 +607,7 @@ public class AlphabetSort {
       * Modified Trie that supports linear time find() and insert(). 
       * Additionally, supports alphabetize() which returns all words in trie alphabetically.
       */
-    private static class SortedTrie {
+    static class SortedTrie {
 
         private Node root; 
 
@@ -100,32 +658,19 @@ public class AlphabetSort {
                                                    + "cannot be added to a Trie.");
             }
 
-            insert(root, s, 0);
-        }
-
-        /**
-          * Recursively inserts letters into the tree until the String s is fully inserted.
-          * @param x Node that is currently being pointed at. 
-          * @param key String that is to be inserted.
-          * @param d Represents the dth letter of the string being added.
-          * @return Returns the current node. 
-          */
-        private Node insert(Node x, String key, int d) {
-        // If there is no node at that point.
-            if (x == null) {
-                x = new Node();
-            }
-
-        // Completed going through the word. 
-            if (d == key.length()) {
-                x.exists = true;
-                return x;
+            // Iterative, so that long words cannot overflow the call stack.
+            Node pointer = root;
+            for (int i = 0; i < s.length(); i += 1) {
+                char c = s.charAt(i);
+                Node next = pointer.links.get(c);
+                if (next == null) {
+                    next = new Node();
+                    pointer.links.put(c, next);
+                }
+                pointer = next;
             }
-
-        // Gets the letter we are looking at and assigns the node accordingly.
-            char c = key.charAt(d);
-            x.links.put(c, insert(x.links.get(c), key, d + 1));
-            return x;
+            pointer.exists = true;
+            pointer.count += 1;
         }
 
         /** 
@@ -134,44 +679,131 @@ public class AlphabetSort {
           * @return String array of the alphabetized terms.
           */
         public String[] alphabetize(String alphabet) {
-            String output = alphabetize(root, alphabet, "");
-            String[] splitList = output.split(" ");
-            return splitList;
+            ArrayList<String> words = new ArrayList<String>();
+            alphabetize(alphabet, word -> words.add(word.toString()));
+            return words.toArray(new String[0]);
+        }
+
+        /**
+          * Writes all contents in alphabetical order, one word per line.
+          * @param alphabet String of the alphabet by which to order the words.
+          * @param out Writer to write to; it is neither flushed nor closed.
+          * @throws IOException If out cannot be written to.
+          */
+        public void alphabetize(String alphabet, Writer out) throws IOException {
+            alphabetize(alphabet, out, false);
         }
 
         /**
-          * Traverses the SortedTrie recursively to extract words. 
-          * @param x Node representing the current node.
-          * @param alphabet String of alphabet by which to display the SortedTrie's contents.
-          * @param wordbase String representing the letters traversed to get to the current node.
-          * @return Single string containing all of the words that have been found so far, 
-          *         separated by spaces. 
+          * Writes all contents in alphabetical order, one word per line.
+          * @param alphabet String of the alphabet by which to order the words.
+          * @param out Writer to write to; it is neither flushed nor closed.
+          * @param duplicates Whether to write each word once per insert rather than once.
+          * @throws IOException If out cannot be written to.
           */
-        private String alphabetize(Node x, String alphabet, String wordbase) {
-            Node pointer = x;
-            String words = "";
-            String trueBase = wordbase;
+        public void alphabetize(String alphabet, Writer out, boolean duplicates)
+            throws IOException {
+            walk(alphabet, (word, count) -> {
+                for (int n = duplicates ? count : 1; n > 0; n -= 1) {
+                    out.append(word).append('\n');
+                }
+            });
+        }
 
-            if (pointer == null) {
-                return "";
+        /**
+          * Passes all contents in alphabetical order to a callback, one word at a time.
+          * Every word is the same reused StringBuilder, so it is only valid during the call.
+          * @param alphabet String of the alphabet by which to order the words.
+          * @param callback Receives each word.
+          */
+        public void alphabetize(String alphabet, Consumer<CharSequence> callback) {
+            try {
+                walk(alphabet, (word, count) -> callback.accept(word));
+            } catch (IOException e) {
+                // Only a Writer can throw, and none is involved here.
+                throw new IllegalStateException(e);
             }
+        }
 
-        // Iterate through the alphabet. 
-            for (int i = 0; i < alphabet.length(); i += 1) {
-                trueBase = wordbase;
-                char c = alphabet.charAt(i);
-            // If the node exists. 
-                if (pointer.links.get(c) != null) {
-                    trueBase += c;
-                    if (pointer.links.get(c).exists) {
-                        words += trueBase + " ";
+        /** Receives the words found by walk. */
+        private interface Visitor {
+            void visit(StringBuilder word, int count) throws IOException;
+        }
+
+        /**
+          * Visits every word in alphabetical order. The trie is walked depth-first with an
+          * explicit stack, so long words cannot overflow the call stack, and the current
+          * word is kept in a single StringBuilder that is trimmed and extended in place.
+          * @param alphabet String of the alphabet by which to order the words.
+          * @param visitor Receives each word.
+          * @throws IOException If the visitor does.
+          */
+        private void walk(String alphabet, Visitor visitor) throws IOException {
+            StringBuilder path = new StringBuilder();
+            Node[] nodes = new Node[64];
+            char[] letters = new char[64];
+            int[] depths = new int[64];
+            nodes[0] = root;
+            int top = 1;
+            while (top > 0) {
+                top -= 1;
+                Node x = nodes[top];
+                int depth = depths[top];
+                if (depth > 0) {
+                    path.setLength(depth - 1);
+                    path.append(letters[top]);
+                }
+                if (x.exists) {
+                    visitor.visit(path, x.count);
+                }
+                // Push children in reverse alphabet order so they pop in order, stopping
+                // once all of them are found.
+                int left = x.links.size();
+                for (int i = alphabet.length() - 1; i >= 0 && left > 0; i -= 1) {
+                    char c = alphabet.charAt(i);
+                    Node child = x.links.get(c);
+                    if (child != null) {
+                        if (top == nodes.length) {
+                            nodes = Arrays.copyOf(nodes, 2 * top);
+                            letters = Arrays.copyOf(letters, 2 * top);
+                            depths = Arrays.copyOf(depths, 2 * top);
+                        }
+                        nodes[top] = child;
+                        letters[top] = c;
+                        depths[top] = depth + 1;
+                        top += 1;
+                        left -= 1;
                     }
-                    words += alphabetize(pointer.links.get(c), alphabet, trueBase);
                 }
             }
+        }
 
-            return words;
+        /**
+          * Reports node counts, depth, branching and estimated heap usage.
+          * @return TrieStats describing this SortedTrie.
+          */
+        public TrieStats stats() {
+            TrieStats stats = new TrieStats("AlphabetSort.SortedTrie");
+            stats(root, 0, stats);
+            return stats;
         }
+
+        /**
+          * Recursively records every node below x.
+          * @param x Current node.
+          * @param depth Depth of x.
+          * @param stats Report being filled in.
+          */
+        private void stats(Node x, int depth, TrieStats stats) {
+            stats.recordNode(depth, x.links.size(), x.exists);
+            stats.addNodeBytes(TrieStats.objectBytes(1 + 4 + TrieStats.REF));
+            stats.addMapBytes(TrieStats.hashMapBytes(x.links.size()));
+            for (Character c : x.links.keySet()) {
+                stats.addMapBytes(TrieStats.characterBytes(c));
+                stats(x.links.get(c), depth + 1, stats);
+            }
+        }
+
         /** 
           * A single node in a Trie. Contains boolean exists that determines whether 
           * the node represents the last letter of a word in the tree. Also contains 
@@ -179,6 +811,8 @@ public class AlphabetSort {
           */
         private class Node {
             boolean exists;
+            /** Number of times the word ending here was inserted. */
+            int count;
             HashMap<Character, Node> links;
 
             /** 
@@ -190,4 +824,400 @@ public class AlphabetSort {
             }
         }
     }
+
+    /**
+      * Sorts on a fork-join pool. The words are distributed by the rank of their first
+      * letter with one counting pass, and each bucket is radix sorted by its own task;
+      * buckets holding more than their share of the words are split again by their
+      * second letter first, so a skewed alphabet still yields enough tasks. Words that
+      * are equal share every bucket, so each task also strips its repeats and formats
+      * its words into its own buffer, and the buffers are written in alphabet order.
+      */
+    static class ParallelSort {
+        /** Ranges of at most this many words are sorted without splitting. */
+        private static final int SEQUENTIAL = 1 << 13;
+
+        /**
+          * Sorts words in place.
+          * @param words Words whose letters are all in the alphabet.
+          * @param rank Rank table from RadixSort.ranks.
+          * @param pool Pool to sort on.
+          */
+        static void sort(String[] words, int[] rank, ForkJoinPool pool) {
+            pool.invoke(new BucketTask(words, rank, 0, words.length, 0, false,
+                                       limit(words.length, pool), null));
+        }
+
+        /**
+          * Sorts words in place and writes each distinct word once, one per line.
+          * @param words Words whose letters are all in the alphabet.
+          * @param rank Rank table from RadixSort.ranks.
+          * @param pool Pool to sort and format on.
+          * @param out Writer to write to; it is not flushed.
+          * @throws IOException If out fails.
+          */
+        static void write(String[] words, int[] rank, ForkJoinPool pool, Writer out)
+            throws IOException {
+            write(words, rank, pool, out, null);
+        }
+
+        /**
+          * Sorts words in place and writes each distinct word, one per line, as many times
+          * as it was counted.
+          * @param words Words whose letters are all in the alphabet.
+          * @param rank Rank table from RadixSort.ranks.
+          * @param pool Pool to sort and format on.
+          * @param out Writer to write to; it is not flushed.
+          * @param counts Occurrences of each word, or null to write each word once.
+          * @throws IOException If out fails.
+          */
+        static void write(String[] words, int[] rank, ForkJoinPool pool, Writer out,
+                          WordCounts counts) throws IOException {
+            BucketTask task = new BucketTask(words, rank, 0, words.length, 0, true,
+                                             limit(words.length, pool), counts);
+            pool.invoke(task);
+            task.writeTo(out);
+        }
+
+        /**
+          * @param n Number of words.
+          * @param pool Pool to sort on.
+          * @return Size above which a first-level bucket is split again.
+          */
+        private static int limit(int n, ForkJoinPool pool) {
+            return Math.max(SEQUENTIAL, n / (4 * pool.getParallelism()));
+        }
+
+        /** Sorts one range of words that share their first d letters. */
+        private static class BucketTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final String[] words;
+            private final int[] rank;
+            private final int from;
+            private final int to;
+            private final int d;
+            private final boolean format;
+            private final int limit;
+            /** Occurrences of each word, only read, or null to format each word once. */
+            private final WordCounts occurrences;
+            /** Buckets of this range in alphabet order, if it was split. */
+            private final ArrayList<BucketTask> buckets = new ArrayList<BucketTask>();
+            /** Sorted distinct words of this range, one per line, if it was not. */
+            private StringBuilder text;
+
+            /**
+              * @param words0 Words being sorted.
+              * @param rank0 Rank table.
+              * @param from0 First index of the range.
+              * @param to0 One past the last index of the range.
+              * @param d0 Number of letters the range shares.
+              * @param format0 Whether to format the sorted range into text.
+              * @param limit0 Size above which the range is split, or 0 to never split.
+              * @param counts0 Occurrences of each word, or null.
+              */
+            BucketTask(String[] words0, int[] rank0, int from0, int to0, int d0,
+                       boolean format0, int limit0, WordCounts counts0) {
+                words = words0;
+                rank = rank0;
+                from = from0;
+                to = to0;
+                d = d0;
+                format = format0;
+                limit = limit0;
+                occurrences = counts0;
+            }
+
+            @Override
+            protected void compute() {
+                if (limit == 0 || to - from <= SEQUENTIAL || d > 0 && to - from <= limit) {
+                    RadixSort.sortRange(words, from, to, d, rank);
+                    if (format) {
+                        text = new StringBuilder();
+                        for (int i = from; i < to; i += 1) {
+                            if (i == from || !words[i].equals(words[i - 1])) {
+                                int n = occurrences == null ? 1 : occurrences.count(words[i]);
+                                for (; n > 0; n -= 1) {
+                                    text.append(words[i]).append('\n');
+                                }
+                            }
+                        }
+                    }
+                    return;
+                }
+
+                // Counting sort by the letter at d; bucket 0 is for words that end here.
+                int[] counts = new int[rank.length + 2];
+                for (int i = from; i < to; i += 1) {
+                    int r = RadixSort.at(words[i], d, rank) + 1;
+                    counts[r + 1] += 1;
+                }
+                for (int b = 0; b + 1 < counts.length; b += 1) {
+                    counts[b + 1] += counts[b];
+                }
+                String[] aux = new String[to - from];
+                for (int i = from; i < to; i += 1) {
+                    int r = RadixSort.at(words[i], d, rank) + 1;
+                    aux[counts[r]] = words[i];
+                    counts[r] += 1;
+                }
+                System.arraycopy(aux, 0, words, from, aux.length);
+
+                // Bucket b now holds words[from + start, from + counts[b]).
+                int start = 0;
+                for (int b = 0; b + 1 < counts.length; b += 1) {
+                    if (counts[b] > start) {
+                        // Only the first level splits again, and only skewed buckets.
+                        buckets.add(new BucketTask(words, rank, from + start, from + counts[b],
+                                                   d + 1, format, d == 0 ? limit : 0,
+                                                   occurrences));
+                    }
+                    start = counts[b];
+                }
+                invokeAll(buckets);
+            }
+
+            /**
+              * Writes the text of every bucket in order.
+              * @param out Writer to write to.
+              * @throws IOException If out fails.
+              */
+            void writeTo(Writer out) throws IOException {
+                if (text != null) {
+                    out.append(text);
+                }
+                for (BucketTask bucket : buckets) {
+                    bucket.writeTo(out);
+                }
+            }
+        }
+    }
+
+    /**
+      * Sorts input larger than the heap. Words are counted until a run holds runWords
+      * distinct words; each run is then radix sorted and written to a temp file as
+      * "count word" lines, and the runs are merged with a heap of one cursor per run,
+      * adding up the counts of equal words. While there are more runs than fanIn,
+      * groups of fanIn runs are first merged into longer runs. Only one run, or one
+      * buffered line per merged run, is in memory at a time, and every temp file is
+      * written and read sequentially. Input that fits in one run is never spilled.
+      */
+    static class ExternalSort {
+        private final int runWords;
+        private final int fanIn;
+        private final boolean duplicates;
+
+        /**
+          * @param runWords0 Most distinct words held in memory at once while making runs.
+          * @param fanIn0 Most runs merged at once, at least 2.
+          */
+        ExternalSort(int runWords0, int fanIn0) {
+            this(runWords0, fanIn0, false);
+        }
+
+        /**
+          * @param runWords0 Most distinct words held in memory at once while making runs.
+          * @param fanIn0 Most runs merged at once, at least 2.
+          * @param duplicates0 Whether to print each word as many times as it occurs.
+          */
+        ExternalSort(int runWords0, int fanIn0, boolean duplicates0) {
+            if (runWords0 < 1 || fanIn0 < 2) {
+                throw new IllegalArgumentException("Runs must hold a word and merges take at least 2 runs.");
+            }
+            runWords = runWords0;
+            fanIn = fanIn0;
+            duplicates = duplicates0;
+        }
+
+        /**
+          * Sorts input in AlphabetSort's format: the alphabet on the first line, then
+          * one word per line. Prints each distinct word once, or once per occurrence,
+          * and skips words with letters outside the alphabet. Lines are split by
+          * LineReader, like every other engine.
+          * @param input UTF-8 input to sort; it is read to the end but not closed.
+          * @param out Writer to write the sorted words to; it is not flushed.
+          * @throws IOException If the input, output or a temp file fails.
+          */
+        void sort(InputStream input, Writer out) throws IOException {
+            LineReader in = new LineReader(input);
+            String alphabet = in.readLine();
+            if (alphabet == null) {
+                throw new IllegalArgumentException("No words or alphabet are given.");
+            }
+            int[] rank = RadixSort.ranks(alphabet);
+
+            ArrayList<Path> runs = new ArrayList<Path>();
+            try {
+                WordCounts counts = new WordCounts();
+                boolean any = false;
+                while (true) {
+                    counts.clear();
+                    String word = null;
+                    while (counts.size() < runWords && (word = in.readLine()) != null) {
+                        any = true;
+                        if (word.isEmpty()) {
+                            throw new IllegalArgumentException("Null or empty strings"
+                                                               + "cannot be added to a Trie.");
+                        }
+                        if (RadixSort.inAlphabet(word, rank)) {
+                            counts.add(word);
+                        }
+                    }
+                    String[] sorted = counts.words();
+                    RadixSort.sort(sorted, rank);
+                    if (word == null && runs.isEmpty()) {
+                        // Everything fit in one run.
+                        for (String s : sorted) {
+                            emit(s, counts.count(s), duplicates, out);
+                        }
+                        break;
+                    }
+                    Path file = Files.createTempFile("alphabetsort", ".run");
+                    runs.add(file);
+                    try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                        for (String s : sorted) {
+                            writeRunLine(counts.count(s), s, w);
+                        }
+                    }
+                    if (word == null) {
+                        break;
+                    }
+                }
+                if (!any) {
+                    throw new IllegalArgumentException("No words or alphabet are given.");
+                }
+
+                while (runs.size() > fanIn) {
+                    ArrayList<Path> merged = new ArrayList<Path>();
+                    for (int i = 0; i < runs.size(); i += fanIn) {
+                        List<Path> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                        Path file = Files.createTempFile("alphabetsort", ".run");
+                        merged.add(file);
+                        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                            merge(group, rank, w, true);
+                        }
+                        for (Path p : group) {
+                            Files.delete(p);
+                        }
+                    }
+                    runs = merged;
+                }
+                if (!runs.isEmpty()) {
+                    merge(runs, rank, out, false);
+                }
+            } finally {
+                for (Path p : runs) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+
+        /**
+          * Writes a word once, or count times.
+          * @param word Word to write.
+          * @param count Number of times it occurred.
+          * @param duplicates Whether to write it count times.
+          * @param out Writer to write to.
+          * @throws IOException If out fails.
+          */
+        private static void emit(String word, long count, boolean duplicates, Writer out)
+            throws IOException {
+            for (long n = duplicates ? count : 1; n > 0; n -= 1) {
+                out.append(word).append('\n');
+            }
+        }
+
+        /**
+          * Merges sorted runs, adding up the counts of equal words.
+          * @param runs Run files, each sorted and without repeats.
+          * @param rank Rank table of the alphabet.
+          * @param out Writer to write to.
+          * @param intermediate Whether out is another run rather than the output.
+          * @throws IOException If a run or out fails.
+          */
+        private void merge(List<Path> runs, int[] rank, Writer out, boolean intermediate)
+            throws IOException {
+            PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(runs.size(),
+                (a, b) -> RadixSort.compare(a.word, b.word, rank));
+            ArrayList<InputStream> streams = new ArrayList<InputStream>();
+            try {
+                // Split a fixed budget between the runs, so wide merges stay bounded too.
+                int buffer = Math.max(1 << 12, (1 << 22) / runs.size());
+                for (Path p : runs) {
+                    InputStream stream = Files.newInputStream(p);
+                    streams.add(stream);
+                    Cursor c = new Cursor(new LineReader(stream, buffer));
+                    if (c.advance()) {
+                        heap.add(c);
+                    }
+                }
+                String word = null;
+                long total = 0;
+                while (true) {
+                    Cursor c = heap.poll();
+                    if (word != null && (c == null || !word.equals(c.word))) {
+                        if (intermediate) {
+                            writeRunLine(total, word, out);
+                        } else {
+                            emit(word, total, duplicates, out);
+                        }
+                        total = 0;
+                    }
+                    if (c == null) {
+                        break;
+                    }
+                    word = c.word;
+                    total += c.count;
+                    if (c.advance()) {
+                        heap.add(c);
+                    }
+                }
+            } finally {
+                for (InputStream stream : streams) {
+                    stream.close();
+                }
+            }
+        }
+
+        /**
+          * Writes a "count word" line to a run. It ends in \r\n, so LineReader drops
+          * the \r it adds rather than one at the end of the word.
+          * @param count Occurrences of the word.
+          * @param word Word to write.
+          * @param run Writer over the run.
+          * @throws IOException If the run cannot be written.
+          */
+        private static void writeRunLine(long count, String word, Writer run)
+            throws IOException {
+            run.append(Long.toString(count)).append(' ').append(word).append("\r\n");
+        }
+
+        /** The next unmerged word of a run and its count. */
+        private static class Cursor {
+            private final LineReader reader;
+            String word;
+            long count;
+
+            /**
+              * @param reader0 Reader over the run.
+              */
+            Cursor(LineReader reader0) {
+                reader = reader0;
+            }
+
+            /**
+              * @return Whether the run had another word, now in word and count.
+              * @throws IOException If the run cannot be read.
+              */
+            boolean advance() throws IOException {
+                String line = reader.readLine();
+                if (line == null) {
+                    return false;
+                }
+                int space = line.indexOf(' ');
+                count = Long.parseLong(line, 0, space, 10);
+                word = line.substring(space + 1);
+                return true;
+            }
+        }
+    }
 }
@@ -1,80 +1,186 @@
 import java.util.LinkedList;
-import java.util.HashMap;
-import java.util.TreeSet;
 import java.util.LinkedHashSet;
 import java.util.Comparator;
 import java.util.PriorityQueue;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongSupplier;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.text.Normalizer;
 /**
  * Implements autocomplete on prefixes for a given dictionary of terms and weights.
  * @author William Zhuang
  * Citation: http://stackoverflow.com/questions/
  *           1090969/treeset-to-order-elements-in-descending-order
- * http://stackoverflow.com/questions/109383/how-to-sort-a-mapkey-value-on-the-values-in-java
  * TST adapted from http://algs4.cs.princeton.edu/52trie/TST.java.html
  */
 public class Autocomplete {
+    /** Past this growth factor a renormalization is queued on RENORMALIZER. */
+    static final double BACKGROUND_RENORMALIZE_AT = 0x1p64;
+    /** Past this growth factor incrementWeight renormalizes inline before adding. */
+    static final double RENORMALIZE_AT = 0x1p128;
+
+    /** Runs queued renormalizations, one at a time, for every decaying Autocomplete. */
+    static final ExecutorService RENORMALIZER = Executors.newSingleThreadExecutor(
+        new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "autocomplete-renormalize");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
     WeightedTST trie;
-    HashMap<String, Double> weightMap;
-    TreeMap<String, Double> stringMap;
+    TermWeightTable weightTable;
+
+    /** Half-life of decaying weights in clock units, or 0 if weights do not decay. */
+    private double halfLife;
+    private LongSupplier clock;
+    /** Time at which stored weights equal real weights. */
+    private long epoch;
+    /** Whether the TST is keyed by fold(term) rather than the term itself. */
+    private boolean fold;
+    /** Readers share it; incrementWeight and renormalize hold it exclusively. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Whether a renormalization is queued on RENORMALIZER and has not finished. */
+    private final AtomicBoolean renormalizing = new AtomicBoolean();
+
     /**
      * Initializes required data structures from parallel arrays.
      * @param terms Array of terms.
      * @param weights Array of weights.
      */
     public Autocomplete(String[] terms, double[] weights) {
+        this(terms, weights, 0, System::currentTimeMillis);
+    }
+
+    /**
+     * Initializes an Autocomplete that optionally ignores case and accents.
+     * @param terms Array of terms.
+     * @param weights Array of weights.
+     * @param fold Whether prefixes match case- and accent-insensitively.
+     */
+    public Autocomplete(String[] terms, double[] weights, boolean fold) {
+        this(terms, weights, 0, System::currentTimeMillis, fold);
+    }
+
+    /**
+     * Initializes an Autocomplete whose weights decay exponentially over time, so
+     * recent incrementWeight hits outweigh old ones.
+     * Weights are stored relative to a moving epoch: a hit at time t is stored scaled
+     * up by 2^((t - epoch) / halfLife), and the common factor is divided out only when
+     * a weight is read. Every stored weight shrinks by the same factor, so relative
+     * order, and with it the maxWeight pruning in topMatches, is unaffected by time.
+     * Once the common factor passes 2^64, the next read or update queues a
+     * renormalization on a background thread, so neither path pays for it.
+     * @param terms Array of terms.
+     * @param weights Array of weights at the time of construction.
+     * @param halfLife Time for a weight to decay by half in clock units, or 0 for none.
+     * @param clock Source of the current time, e.g. System::currentTimeMillis.
+     */
+    public Autocomplete(String[] terms, double[] weights, double halfLife, LongSupplier clock) {
+        this(terms, weights, halfLife, clock, false);
+    }
+
+    /**
+     * Initializes an Autocomplete with decaying weights that optionally ignores case
+     * and accents. When folding, the TST is keyed by fold(term) and each terminal node
+     * keeps the original terms, so prefixes are matched on folded keys but the original
+     * terms and their own weights are returned. Terms that fold to the same key share
+     * every node of the path; the folded keys themselves are never stored.
+     * @param terms Array of terms.
+     * @param weights Array of weights at the time of construction.
+     * @param halfLife Time for a weight to decay by half in clock units, or 0 for none.
+     * @param clock Source of the current time, e.g. System::currentTimeMillis.
+     * @param fold Whether prefixes match case- and accent-insensitively.
+     */
+    public Autocomplete(String[] terms, double[] weights, double halfLife, LongSupplier clock,
+                        boolean fold) {
+        if (halfLife < 0) {
+            throw new IllegalArgumentException("Negative half-life");
+        }
+        this.halfLife = halfLife;
+        this.clock = clock;
+        this.fold = fold;
+        epoch = clock.getAsLong();
+
         if (terms.length != weights.length) {
             throw new IllegalArgumentException("The length of the terms and" 
                                                + "weights arrays are different.");
         }
 
         trie = new WeightedTST();
-        weightMap = new HashMap<String, Double>();
-        stringMap = new TreeMap<String, Double>(new ConflictComparator(weightMap));
+        weightTable = new TermWeightTable(terms.length);
         for (int i = 0; i < terms.length; i += 1) {
             if (weights[i] < 0) {
                 throw new IllegalArgumentException("Negative weight");
             }
-            trie.insert(terms[i], weights[i]);
-            weightMap.put(terms[i], weights[i]);
-            stringMap.put(terms[i], weights[i]);
-        }
-
-        if (weightMap.size() != weights.length) {
-            throw new IllegalArgumentException("Duplicate terms exist.");
+            if (!weightTable.add(terms[i], weights[i])) {
+                throw new IllegalArgumentException("Duplicate terms exist.");
+            }
+            trie.insert(key(terms[i]), terms[i], weights[i]);
         }
     }
 
-    /** 
-      * Specialized reverse order comparator that orders a map according to its values. 
-      */
-    private class ConflictComparator implements Comparator<String> {
-        
-        private HashMap<String, Double> origMap;
-
-        /** 
-          * Constructor for the comparator. 
-          * @param origMap0 Original HashMap to be ordered.
-          */ 
-        public ConflictComparator(HashMap<String, Double> origMap0) {
-            origMap = origMap0;
+    /**
+     * Folds a string for case- and accent-insensitive matching: canonical decomposition,
+     * combining marks dropped, then every code point lower-cased on its own. Each code
+     * point folds independently of the ones after it, so the fold of a prefix is a
+     * prefix of the fold of the term.
+     * @param s String to fold.
+     * @return Folded string.
+     */
+    public static String fold(String s) {
+        boolean ascii = true;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            return s.toLowerCase(Locale.ROOT);
         }
 
-        /**
-          * Modified compare method. Does not return 0 to allow for multiple keys 
-          * with equal values to exist in the same map. Note that the order is reversed.
-          * @param s1 First string to be compared.
-          * @param s2 Second String to be compared.
-          * @return int Returns -1 if s1 > s2 and 1 if s1 <= s2.
-          */
-        public int compare(String s1, String s2) {
-            int answer = (int) Math.signum(origMap.get(s2) - origMap.get(s1));
-            if (answer == 0) {
-                return 1;
-            } else {
-                return answer;
+        String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); ) {
+            int c = decomposed.codePointAt(i);
+            int type = Character.getType(c);
+            if (type != Character.NON_SPACING_MARK && type != Character.ENCLOSING_MARK
+                && type != Character.COMBINING_SPACING_MARK) {
+                sb.appendCodePoint(Character.toLowerCase(c));
             }
+            i += Character.charCount(c);
         }
+        return sb.toString();
+    }
+
+    /**
+     * @param term Term or prefix.
+     * @return Key under which term is stored in the TST.
+     */
+    private String key(String term) {
+        if (!fold) {
+            return term;
+        }
+        String key = fold(term);
+        if (key.isEmpty() && !term.isEmpty()) {
+            throw new IllegalArgumentException("\"" + term + "\" folds to an empty string.");
+        }
+        return key;
     }
 
     /**
@@ -83,11 +189,108 @@ public class Autocomplete {
      * @return double Weight of the term
      */
     public double weightOf(String term) {
-        if (weightMap.get(term) == null) {
-            return 0.0;
-        } else {
-            return weightMap.get(term);
+        lock.readLock().lock();
+        try {
+            double weight = weightTable.get(term, 0.0);
+            if (weight == 0.0) {
+                return 0.0;
+            }
+            return weight / checkScale();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds to the weight of a term, inserting it if it does not exist. Under decaying
+     * weights the amount is counted at the current time. Takes time linear in the
+     * length of the term. The one exception is the first call after more than 128
+     * half-lives without any read or update: before that queued renormalization
+     * could have run, it renormalizes inline so the stored weight cannot overflow.
+     * @param term Term that was hit.
+     * @param amount Non-negative amount to add to its weight.
+     */
+    public void incrementWeight(String term, double amount) {
+        if (term == null || term.isEmpty()) {
+            throw new IllegalArgumentException("Null or empty strings cannot be added.");
+        }
+        if (amount < 0) {
+            throw new IllegalArgumentException("Negative weight");
+        }
+
+        lock.writeLock().lock();
+        try {
+            double scale = checkScale();
+            if (scale > RENORMALIZE_AT) {
+                renormalize();
+                scale = 1;
+            }
+            weightTable.put(term, trie.increment(key(term), term, amount * scale));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the epoch to the current time, dividing every stored weight by the growth
+     * factor accumulated since the last epoch. Takes linear time and blocks reads and
+     * updates while it runs. It is queued on RENORMALIZER automatically, so callers
+     * only need it to renormalize at a time of their choosing. Weights that have
+     * decayed below Double.MIN_VALUE become 0.
+     */
+    public void renormalize() {
+        if (halfLife == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            long now = clock.getAsLong();
+            double scale = scale(now);
+            trie.rescale(trie.root, scale);
+            weightTable.divideAll(scale);
+            epoch = now;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current scale, first queueing a renormalization on RENORMALIZER if
+     * it has passed BACKGROUND_RENORMALIZE_AT and none is queued. Every read checks,
+     * so an index that is only queried keeps its scale far from overflowing too.
+     * Callers must hold the lock, since renormalize moves the epoch under it.
+     * @return Factor by which stored weights currently exceed real weights.
+     */
+    private double checkScale() {
+        double scale = scale();
+        if (scale > BACKGROUND_RENORMALIZE_AT && renormalizing.compareAndSet(false, true)) {
+            RENORMALIZER.execute(() -> {
+                try {
+                    renormalize();
+                } finally {
+                    renormalizing.set(false);
+                }
+            });
+        }
+        return scale;
+    }
+
+    /** 
+     * @return Factor by which stored weights currently exceed real weights.
+     */
+    private double scale() {
+        if (halfLife == 0) {
+            return 1;
         }
+        return scale(clock.getAsLong());
+    }
+
+    /** 
+     * @param now Current time.
+     * @return Factor by which stored weights exceed real weights at time now.
+     */
+    private double scale(long now) {
+        return Math.pow(2, (now - epoch) / halfLife);
     }
 
     /**
@@ -96,12 +299,39 @@ public class Autocomplete {
      * @return Best (highest weight) matching string in the dictionary.
      */
     public String topMatch(String prefix) {
-        LinkedHashSet<String> outinsert = (LinkedHashSet<String>) topMatches(prefix, 1);
-        String answer = "";
-        for (String x : outinsert) {
-            answer = x;
+        Iterator<String> matches = completions(prefix);
+        if (matches.hasNext()) {
+            return matches.next();
         }
-        return answer;
+        return "";
+    }
+
+    /**
+     * Returns every matching term, lazily, in descending order of weight. Terms are
+     * found one at a time, so taking the first m costs work proportional to m rather
+     * than to the number of matches. The iterator must not be used across inserts,
+     * but stays valid across renormalizations: they divide every weight alike.
+     * @param prefix Prefix from which words are found.
+     * @return Iterator over the matching terms in descending order.
+     */
+    public Iterator<String> completions(String prefix) {
+        lock.readLock().lock();
+        try {
+            checkScale();
+            return trie.new CompletionIterator(fold ? fold(prefix) : prefix, 16);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stream view of completions(prefix), e.g. completionStream(p).limit(3).
+     * @param prefix Prefix from which words are found.
+     * @return Ordered, lazy Stream of the matching terms in descending order.
+     */
+    public Stream<String> completionStream(String prefix) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(completions(prefix),
+            Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
     }
 
     /**
@@ -116,23 +346,135 @@ public class Autocomplete {
             throw new IllegalArgumentException("k cannot be negative.");
         }
 
-        LinkedHashSet<String> output = new LinkedHashSet<String>();
+        if (k == 0) {
+            return new LinkedHashSet<String>();
+        }
+        lock.readLock().lock();
+        try {
+            checkScale();
+            return trie.topMatches(fold ? fold(prefix) : prefix, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Combines the weights of terms present in both dictionaries by adding them.
+     * @return Combine function for merge.
+     */
+    public static DoubleBinaryOperator sum() {
+        return (a, b) -> a + b;
+    }
+
+    /**
+     * Combines the weights of terms present in both dictionaries by taking the larger.
+     * @return Combine function for merge.
+     */
+    public static DoubleBinaryOperator max() {
+        return (a, b) -> Math.max(a, b);
+    }
+
+    /**
+     * Combines the weights of terms present in both dictionaries as a weighted sum.
+     * @param wa Factor applied to the weight from the first dictionary.
+     * @param wb Factor applied to the weight from the second dictionary.
+     * @return Combine function for merge.
+     */
+    public static DoubleBinaryOperator weighted(double wa, double wb) {
+        if (wa < 0 || wb < 0) {
+            throw new IllegalArgumentException("Negative weight");
+        }
+        return (a, b) -> wa * a + wb * b;
+    }
+
+    /**
+     * Merges built dictionaries into a new Autocomplete without re-parsing or
+     * re-inserting. Each TST is walked in order into parallel arrays of terms and
+     * their current weights, and one k-way merge over those arrays feeds a TST built
+     * bottom-up, so merging k dictionaries of n terms in total takes O(n log k) after
+     * the walks. A folding dictionary walks in folded-key order, so its m terms are
+     * sorted first, in O(m log m). Terms present in more than one dictionary get
+     * their weights combined, left to right. The inputs are not modified. The result
+     * neither decays nor folds: it holds each input's weights as of the merge, keyed
+     * by the terms themselves.
+     * @param combine Function combining the weights of terms present in both.
+     * @param dictionaries Dictionaries to merge.
+     * @return Autocomplete over the union of the dictionaries.
+     */
+    public static Autocomplete merge(DoubleBinaryOperator combine, Autocomplete... dictionaries) {
+        int k = dictionaries.length;
+        String[][] terms = new String[k][];
+        double[][] weights = new double[k][];
+        int total = 0;
+        for (int d = 0; d < k; d += 1) {
+            Autocomplete dict = dictionaries[d];
+            dict.lock.readLock().lock();
+            try {
+                int n = dict.weightTable.size();
+                terms[d] = new String[n];
+                weights[d] = new double[n];
+                dict.trie.collect(dict.trie.root, terms[d], weights[d], 0);
+                if (dict.fold) {
+                    // Folded keys sort differently from the terms themselves.
+                    Arrays.sort(terms[d]);
+                    for (int i = 0; i < n; i += 1) {
+                        weights[d][i] = dict.weightTable.get(terms[d][i], 0.0);
+                    }
+                }
+                double scale = dict.checkScale();
+                for (int i = 0; i < n; i += 1) {
+                    weights[d][i] /= scale;
+                }
+            } finally {
+                dict.lock.readLock().unlock();
+            }
+            total += terms[d].length;
+        }
 
-        if (prefix.length() == 0) {
-            int counter = 0;
-            for (String x : stringMap.keySet()) {
-                output.add(x);
-                counter += 1;
-                if (counter == k) {
-                    break;
+        // Dictionaries ordered by their next term; equal terms come out left to right.
+        int[] next = new int[k];
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, k), (a, b) -> {
+            int cmp = terms[a][next[a]].compareTo(terms[b][next[b]]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        for (int d = 0; d < k; d += 1) {
+            if (terms[d].length > 0) {
+                heap.add(d);
+            }
+        }
+        String[] sortedTerms = new String[total];
+        double[] sortedWeights = new double[total];
+        int m = 0;
+        while (!heap.isEmpty()) {
+            int d = heap.poll();
+            String term = terms[d][next[d]];
+            double weight = weights[d][next[d]];
+            if (m > 0 && term.equals(sortedTerms[m - 1])) {
+                weight = combine.applyAsDouble(sortedWeights[m - 1], weight);
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Negative weight");
                 }
+                sortedWeights[m - 1] = weight;
+            } else {
+                sortedTerms[m] = term;
+                sortedWeights[m] = weight;
+                m += 1;
             }
-            return output;
+            next[d] += 1;
+            if (next[d] < terms[d].length) {
+                heap.add(d);
+            }
+        }
+        sortedTerms = Arrays.copyOf(sortedTerms, m);
+        sortedWeights = Arrays.copyOf(sortedWeights, m);
 
-        } else {
-            return trie.topMatches(prefix, k);
+        Autocomplete merged = new Autocomplete(new String[0], new double[0]);
+        merged.weightTable = new TermWeightTable(m);
+        for (int i = 0; i < m; i += 1) {
+            merged.weightTable.add(sortedTerms[i], sortedWeights[i]);
         }
-        
+        merged.trie.build(sortedTerms, sortedWeights);
+        return merged;
     }
 
     /**
@@ -142,12 +484,49 @@ public class Autocomplete {
      * @param dist Maximum edit distance to search
      * @param k    Number of results to return 
      * @return Iterable in descending weight order of the matches
+     * When folding, distance is measured between the folded forms.
      */
     public Iterable<String> spellCheck(String word, int dist, int k) {
         LinkedList<String> results = new LinkedList<String>();  
-        /* YOUR CODE HERE; LEAVE BLANK IF NOT PURSUING BONUS */
-        return results;
+        if (dist < 0 || k < 0) {
+            throw new IllegalArgumentException("dist and k cannot be negative.");
+        }
+        lock.readLock().lock();
+        try {
+            if (weightTable.contains(word) || k == 0) {
+                return results;
+            }
+
+            PriorityQueue<String> candidates = new PriorityQueue<String>(16, 
+                (s1, s2) -> Double.compare(weightTable.get(s2, 0), weightTable.get(s1, 0)));
+            String query = fold ? fold(word) : word;
+            int[] firstRow = new int[query.length() + 1];
+            for (int j = 0; j < firstRow.length; j += 1) {
+                firstRow[j] = j;
+            }
+            trie.spellCheck(trie.root, query, firstRow, dist, candidates);
+
+            while (!candidates.isEmpty() && results.size() < k) {
+                results.add(candidates.poll());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Reports node counts, depth, branching and estimated heap usage of the
+     * WeightedTST and the weight maps.
+     * @return TrieStats describing this Autocomplete.
+     */
+    public TrieStats stats() {
+        TrieStats stats = new TrieStats("Autocomplete");
+        trie.stats(trie.root, 0, stats);
+        stats.addMapBytes(weightTable.bytes());
+        stats.addWeightBytes(weightTable.weightBytes());
+        return stats;
     }
+
     /**
      * Test client. Reads the data from the file, 
      * then repeatedly reads autocomplete queries from standard ininsert and prints out the top 
@@ -195,6 +574,8 @@ public class Autocomplete {
             private String word;
             private double weight;
             private double maxWeight;
+            // Further terms whose key ends here, each a detached node holding a word.
+            private Node twin;
 
             /**
               * Comparison method to compare nodes by weight.
@@ -223,23 +604,27 @@ public class Autocomplete {
         }
 
         /** 
-          * Insert method to insert a word with a weight into the Trie.
-          * @param key Word to be inserted.
+          * Insert method to insert a word with a weight into the Trie under a key,
+          * which differs from the word when folding. If another word already ends at
+          * the key, the new one is chained as its twin.
+          * @param key Key whose path leads to the word.
+          * @param word Word to be inserted, not already present.
           * @param weight Weight of the word.
           */
-        public void insert(String key, double weight) {
-            root = insert(root, key, weight, 0);
+        public void insert(String key, String word, double weight) {
+            root = insert(root, key, word, weight, 0);
         }
 
         /**
           * Recursive insert method to insert the word into the Trie.
           * @param x Current Node
-          * @param key Word to be inserted.
+          * @param key Key whose path leads to the word.
+          * @param word Word to be inserted.
           * @param weight Weight of the word.
           * @param d Represents index of letter in the word represented by the current node.
           * @return current Node
           */
-        private Node insert(Node x, String key, double weight, int d) {
+        private Node insert(Node x, String key, String word, double weight, int d) {
 
             char c = key.charAt(d); 
             // If there is no node at this point. 
@@ -257,21 +642,167 @@ public class Autocomplete {
 
             // If the word has been fully iterated through. 
             if (c < x.letter) {
-                x.left = insert(x.left, key, weight, d);
+                x.left = insert(x.left, key, word, weight, d);
             } else if (c > x.letter) {
-                x.right = insert(x.right, key, weight, d);
+                x.right = insert(x.right, key, word, weight, d);
             } else if (d < key.length() - 1) {
-                x.mid = insert(x.mid, key, weight, d + 1);
+                x.mid = insert(x.mid, key, word, weight, d + 1);
+            } else if (x.exists && !x.word.equals(word)) {
+                addTwin(x, word).weight = weight;
             } else {
                 x.exists = true;
                 x.weight = weight;
-                x.word = key;
+                x.word = word;
                 return x;
             }
 
             return x;
         }
 
+        /**
+          * Adds to the weight of a word, inserting it if needed.
+          * @param key Key whose path leads to the word.
+          * @param word Word whose weight grows.
+          * @param amount Amount to add.
+          * @return New weight of the word.
+          */
+        public double increment(String key, String word, double amount) {
+            root = increment(root, key, word, amount, 0);
+            return holder(getNode(root, key, 0), word).weight;
+        }
+
+        /**
+          * Chains a new word onto the node its key ends at.
+          * @param x Node the key ends at, already holding another word.
+          * @param word Word to be added.
+          * @return Detached node holding the word, with weight 0.
+          */
+        private Node addTwin(Node x, String word) {
+            Node t = new Node();
+            t.exists = true;
+            t.letter = x.letter;
+            t.word = word;
+            t.twin = x.twin;
+            x.twin = t;
+            return t;
+        }
+
+        /**
+          * Finds the node holding a word among a key's node and its twins.
+          * @param x Node the key ends at.
+          * @param word Word to look for.
+          * @return Node holding the word, or null.
+          */
+        private Node holder(Node x, String word) {
+            for (Node t = x; t != null; t = t.twin) {
+                if (t.exists && t.word.equals(word)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        /**
+          * Recursive increment. Weights only grow, so every maxWeight on the path can be
+          * raised in place without looking at the rest of the tree.
+          * @param x Current Node
+          * @param key Key whose path leads to the word.
+          * @param word Word whose weight grows.
+          * @param amount Amount to add.
+          * @param d Represents index of letter in the word represented by the current node.
+          * @return current Node
+          */
+        private Node increment(Node x, String key, String word, double amount, int d) {
+            char c = key.charAt(d);
+            if (x == null) {
+                x = new Node();
+                x.letter = c;
+            }
+
+            Node child;
+            if (c < x.letter) {
+                child = x.left = increment(x.left, key, word, amount, d);
+            } else if (c > x.letter) {
+                child = x.right = increment(x.right, key, word, amount, d);
+            } else if (d < key.length() - 1) {
+                child = x.mid = increment(x.mid, key, word, amount, d + 1);
+            } else {
+                child = holder(x, word);
+                if (child == null && !x.exists) {
+                    x.exists = true;
+                    x.word = word;
+                    child = x;
+                } else if (child == null) {
+                    child = addTwin(x, word);
+                }
+                child.weight += amount;
+            }
+
+            if (x.maxWeight < child.weight) {
+                x.maxWeight = child.weight;
+            }
+            if (x.maxWeight < child.maxWeight) {
+                x.maxWeight = child.maxWeight;
+            }
+            return x;
+        }
+
+        /**
+          * Collects every word within dist edits of the given word. Walks the TST
+          * keeping one row of the Levenshtein table per character on the path, and
+          * abandons a subtree once every entry in its row exceeds dist.
+          * @param x Current node.
+          * @param word Word being spell-checked.
+          * @param prevRow Edit distances between the path above x and each prefix of word.
+          * @param dist Maximum edit distance.
+          * @param out Queue the matching words are added to.
+          */
+        private void spellCheck(Node x, String word, int[] prevRow, int dist, 
+                                PriorityQueue<String> out) {
+            if (x == null) {
+                return;
+            }
+            spellCheck(x.left, word, prevRow, dist, out);
+            spellCheck(x.right, word, prevRow, dist, out);
+
+            int[] row = new int[prevRow.length];
+            row[0] = prevRow[0] + 1;
+            int best = row[0];
+            for (int j = 1; j < row.length; j += 1) {
+                int substitute = prevRow[j - 1] + (word.charAt(j - 1) == x.letter ? 0 : 1);
+                row[j] = Math.min(substitute, Math.min(row[j - 1], prevRow[j]) + 1);
+                best = Math.min(best, row[j]);
+            }
+
+            if (x.exists && row[row.length - 1] <= dist) {
+                for (Node t = x; t != null; t = t.twin) {
+                    out.add(t.word);
+                }
+            }
+            if (best <= dist) {
+                spellCheck(x.mid, word, row, dist, out);
+            }
+        }
+
+        /**
+          * Divides every weight and maxWeight below x by the same factor.
+          * @param x Current node.
+          * @param scale Factor to divide by.
+          */
+        private void rescale(Node x, double scale) {
+            if (x == null) {
+                return;
+            }
+            x.weight /= scale;
+            x.maxWeight /= scale;
+            for (Node t = x.twin; t != null; t = t.twin) {
+                t.weight /= scale;
+            }
+            rescale(x.left, scale);
+            rescale(x.mid, scale);
+            rescale(x.right, scale);
+        }
+
         /** 
           * Traverses the Trie to get to the node that represents the end of the 
           * given key.
@@ -309,97 +840,259 @@ public class Autocomplete {
           * @param k Number of words to return.
           * @return Iterable of the k heaviest weighted words matching the prefix.
           */
-
         public Iterable<String> topMatches(String prefix, int k) {
+            LinkedHashSet<String> answers = new LinkedHashSet<String>();
+            CompletionIterator iter = new CompletionIterator(prefix, k < 16 ? k + 1 : 16);
+            while (answers.size() < k && iter.hasNext()) {
+                answers.add(iter.next());
+            }
+            return answers;
+        }
 
-            // Make pq maximally oriented.
-            PriorityQueue<Node> pq = new PriorityQueue<Node>(3, new WeightComparator());
-            TreeSet<Node> bestAnswer = new TreeSet<Node>(new WeightComparator());
-            
-            Node pointer = root;
-            pointer = getNode(root, prefix, 0);
+        /**
+          * Lazily yields the words with a given prefix in descending order of weight.
+          * Searches best-first: subtrees are expanded in order of maxWeight, and a word
+          * is only yielded once no unexpanded subtree could hold a heavier one, so
+          * pulling m words only expands the nodes needed to prove those m.
+          */
+        private class CompletionIterator implements Iterator<String> {
+            // Words found so far, heaviest first, and subtrees still to expand.
+            private PriorityQueue<Node> words;
+            private PriorityQueue<Node> pq;
 
-            if (pointer != null) {
-                bestAnswer.add(pointer);
-            } else {
-                return new LinkedHashSet<String>();
+            /**
+              * @param prefix Prefix from which to get the words.
+              * @param capacity Initial capacity of the queues.
+              */
+            CompletionIterator(String prefix, int capacity) {
+                words = new PriorityQueue<Node>(capacity, new WeightComparator());
+                pq = new PriorityQueue<Node>(capacity, new MaxWeightComparator());
+                lock.readLock().lock();
+                try {
+                    if (prefix.length() == 0) {
+                        // Every term matches the empty prefix.
+                        if (root != null) {
+                            pq.add(root);
+                        }
+                        return;
+                    }
+
+                    Node pointer = getNode(root, prefix, 0);
+                    if (pointer == null) {
+                        return;
+                    }
+                    addWords(pointer, words);
+                    if (pointer.mid != null) {
+                        pq.add(pointer.mid);
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
             }
 
-            if (pointer.mid != null) {
-                bestAnswer.add(pointer.mid); 
+            /**
+              * Expands subtrees until the heaviest known word is certain to be next.
+              * @return true if there is another word.
+              */
+            public boolean hasNext() {
+                lock.readLock().lock();
+                try {
+                    while (!pq.isEmpty() 
+                           && (words.isEmpty() || words.peek().weight < pq.peek().maxWeight)) {
+                        nodeTraversal(pq.poll(), words, pq);
+                    }
+                    return !words.isEmpty();
+                } finally {
+                    lock.readLock().unlock();
+                }
             }
 
-            nodeTraversal(pointer.mid, bestAnswer, pq, k);
+            /** @return The next heaviest word. */
+            public String next() {
+                lock.readLock().lock();
+                try {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return words.poll().word;
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        }
 
-            LinkedHashSet<String> answers = new LinkedHashSet<String>();
+        /** 
+          * Expands a single node: its word becomes a candidate and its children are
+          * queued for expansion.
+          * @param pointer Current Node
+          * @param words PriorityQueue of words that have been found but not returned.
+          * @param pq PriorityQueue of subtrees that have not been expanded.
+          */
+        private void nodeTraversal(Node pointer, PriorityQueue<Node> words, 
+                                   PriorityQueue<Node> pq) {
+            addWords(pointer, words);
 
+            if (pointer.left != null) {
+                pq.add(pointer.left);
+            }
 
-            for (Node x : bestAnswer) {
-                if ((x == null) || (x.word == null)) {
-                    continue;
-                }
-                answers.add(x.word);
-                if (answers.size() == k) {
-                    break;
-                }
+            if (pointer.right != null) {
+                pq.add(pointer.right);
             }
 
-            return answers;
+            if (pointer.mid != null) {
+                pq.add(pointer.mid);
+            }
         }
 
-        /** 
-          * Traverses the child nodes selectively by only traversing nodes that may contain 
-          * candidates for the top k matches. 
+        /**
+          * Makes the words ending at a node candidates. Twins weigh no more than the
+          * node's maxWeight, so they can be queued together with the node's own word.
           * @param pointer Current Node
-          * @param bestAnswer TreeSet of the bestAnswers so far.
-          * @param pq PriorityQueue representing the heaviest nodes that have 
-          *           not been added to bestAnswer.
-          * @param k Number of top weighted terms to find.
+          * @param words PriorityQueue of words that have been found but not returned.
           */
-        private void nodeTraversal(Node pointer, TreeSet<Node> bestAnswer, 
-                                   PriorityQueue<Node> pq, int k) {
-            TreeSet<Node> nodeSet = new TreeSet<Node>(new MaxWeightComparator());
-            if (pointer == null) {
+        private void addWords(Node pointer, PriorityQueue<Node> words) {
+            if (!pointer.exists) {
                 return;
             }
+            for (Node t = pointer; t != null; t = t.twin) {
+                words.add(t);
+            }
+        }
 
-            if (pointer.left != null) {
-                nodeSet.add(pointer.left);
+        /**
+          * Writes every word below x and its stored weight in sorted order. An
+          * in-order walk of a TST visits the left subtree, the node's own word, the
+          * middle subtree and then the right subtree, which is lexicographic order.
+          * Under folding the order is that of the keys, and twins follow the word of
+          * their node.
+          * @param x Current node.
+          * @param terms Array the words are written to.
+          * @param weights Array their stored weights are written to, parallel to terms.
+          * @param n Number of words already written.
+          * @return Number of words written once the subtree is done.
+          */
+        private int collect(Node x, String[] terms, double[] weights, int n) {
+            if (x == null) {
+                return n;
+            }
+            n = collect(x.left, terms, weights, n);
+            if (x.exists) {
+                for (Node t = x; t != null; t = t.twin) {
+                    terms[n] = t.word;
+                    weights[n] = t.weight;
+                    n += 1;
+                }
             }
+            n = collect(x.mid, terms, weights, n);
+            return collect(x.right, terms, weights, n);
+        }
 
-            if (pointer.right != null) {
-                nodeSet.add(pointer.right);
+        /**
+          * Replaces the contents of the TST with a balanced TST built bottom-up from
+          * sorted, distinct terms. Runs in time linear in the total length of the terms.
+          * @param terms Sorted array of distinct, non-empty terms.
+          * @param weights Weights parallel to terms.
+          */
+        public void build(String[] terms, double[] weights) {
+            root = build(terms, weights, 0, terms.length, 0);
+        }
+
+        /**
+          * Builds the subtree for terms[lo, hi), which share their first d characters.
+          * Terms are grouped by their dth character and the groups are laid out as a
+          * balanced binary tree, each group's remainder hanging off its middle link.
+          * @param terms Sorted array of distinct terms.
+          * @param weights Weights parallel to terms.
+          * @param lo First term in the range.
+          * @param hi One past the last term in the range.
+          * @param d Represents index of letter in the words represented by the subtree.
+          * @return Root of the subtree, or null for an empty range.
+          */
+        private Node build(String[] terms, double[] weights, int lo, int hi, int d) {
+            if (lo >= hi) {
+                return null;
             }
+            ArrayList<Integer> starts = new ArrayList<Integer>();
+            for (int i = lo; i < hi; i += 1) {
+                if (i == lo || terms[i].charAt(d) != terms[i - 1].charAt(d)) {
+                    starts.add(i);
+                }
+            }
+            starts.add(hi);
+            return build(terms, weights, starts, 0, starts.size() - 1, d);
+        }
 
-            if (pointer.mid != null) {
-                nodeSet.add(pointer.mid);
+        /**
+          * Builds a balanced binary tree over the groups starts[gLo, gHi).
+          * @param terms Sorted array of distinct terms.
+          * @param weights Weights parallel to terms.
+          * @param starts Index of the first term of each group, followed by the end.
+          * @param gLo First group.
+          * @param gHi One past the last group.
+          * @param d Represents index of letter in the words represented by the subtree.
+          * @return Root of the subtree, or null if there are no groups.
+          */
+        private Node build(String[] terms, double[] weights, ArrayList<Integer> starts, 
+                           int gLo, int gHi, int d) {
+            if (gLo >= gHi) {
+                return null;
             }
+            int g = (gLo + gHi) >>> 1;
+            int lo = starts.get(g);
+            int hi = starts.get(g + 1);
 
-            for (Node x : nodeSet) {
-                pq.add(x);
+            Node x = new Node();
+            x.letter = terms[lo].charAt(d);
+            // In sorted order the term ending here, if any, comes first in its group.
+            if (terms[lo].length() == d + 1) {
+                x.exists = true;
+                x.word = terms[lo];
+                x.weight = weights[lo];
+                x.maxWeight = weights[lo];
+                lo += 1;
+            }
+            x.left = build(terms, weights, starts, gLo, g, d);
+            x.mid = build(terms, weights, lo, hi, d + 1);
+            x.right = build(terms, weights, starts, g + 1, gHi, d);
+            for (Node child : new Node[] {x.left, x.mid, x.right}) {
+                if (child != null && child.maxWeight > x.maxWeight) {
+                    x.maxWeight = child.maxWeight;
+                }
+            }
+            return x;
+        }
 
-                Node lastNode = null;
-                if (bestAnswer.size() < k) {
-                    if (x.exists) {
-                        bestAnswer.add(x);
-                        pq.poll();
-                    }
-                } else {
-                    lastNode = (Node) bestAnswer.toArray()[k - 1];
-                    if (x.exists) {
-                        if (lastNode.weight <= x.weight) {
-                            bestAnswer.remove(lastNode);
-                            bestAnswer.add(x);
-                            pq.poll();
-                        }
-                    }
-                    if (x.maxWeight <= lastNode.weight) {
-                        continue;
-                    }
+        /**
+          * Recursively records every node below x. Depth is measured in TST links.
+          * @param x Current node.
+          * @param depth Depth of x.
+          * @param stats Report being filled in.
+          */
+        private void stats(Node x, int depth, TrieStats stats) {
+            if (x == null) {
+                return;
+            }
+            int children = 0;
+            for (Node child : new Node[] {x.left, x.mid, x.right}) {
+                if (child != null) {
+                    children += 1;
                 }
-                
-                nodeTraversal(x, bestAnswer, pq, k);
             }
+            stats.recordNode(depth, children, x.exists);
+            // Flags, letter, four links, word and the enclosing instance; weights counted apart.
+            long total = TrieStats.objectBytes(1 + 2 + 6 * TrieStats.REF + 16);
+            stats.addNodeBytes(total - 16);
+            stats.addWeightBytes(16);
+            stats.addStringBytes(TrieStats.stringBytes(x.word));
+            for (Node t = x.twin; t != null; t = t.twin) {
+                stats.addNodeBytes(total - 16);
+                stats.addWeightBytes(16);
+                stats.addStringBytes(TrieStats.stringBytes(t.word));
+            }
+            stats(x.left, depth + 1, stats);
+            stats(x.mid, depth + 1, stats);
+            stats(x.right, depth + 1, stats);
         }
 
         /**
@@ -26,6 +26,9 @@
  *  FEATURE: option to display weights?
  * 
  *  UPDATE: Modified to display weights on the left of auto-complete box
+ *  UPDATE: Suggestions are computed off the event dispatch thread. Keystrokes are
+ *          debounced, stale queries are cancelled, only the newest result is shown,
+ *          and a label under the list reports compute and render time.
  *  
  *  
  *  % java AutocompleteGUI cities.txt 10
@@ -37,6 +40,12 @@ import java.awt.event.*;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
@@ -45,6 +54,8 @@ public class AutocompleteGUI extends JFrame {
     private static int DEF_WIDTH  = 600;
     private static int DEF_HEIGHT = 400;
     private static String searchURL = "https://www.google.com/search?q=";
+    // wait this long after a keystroke before querying, so bursts of typing collapse
+    private static final int DEBOUNCE_MS = 30;
 
     // display top k results
     private final int k;
@@ -102,6 +113,20 @@ public class AutocompleteGUI extends JFrame {
         private Autocomplete auto;
         private String[] results = new String[k]; 
         private JList suggestions;
+        private final JLabel latency;
+
+        // suggestions are computed on this thread, never on the EDT
+        private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "autocomplete-suggestions");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        // bumped on every request; a result is only published if it is still the newest
+        private final AtomicLong generation = new AtomicLong();
+        private ScheduledFuture<?> pending;
        
         // keep these two values in sync! - used to keep the listbox the same width as the textfield
         private final int DEF_COLUMNS = 30;
@@ -206,6 +231,9 @@ public class AutocompleteGUI extends JFrame {
             suggestionsPanel.setBorder(BorderFactory.createEmptyBorder(0,5,0,0));
             suggestionsPanel.add(suggestions);
             suggestionsPanel.setLayout(new GridLayout(1,1));
+            latency = new JLabel(" ");
+            latency.setFont(latency.getFont().deriveFont(Font.PLAIN, 10));
+            latency.setForeground(Color.GRAY);
             this.setMaximumSize(new Dimension(searchText.getMaximumSize().width, this.getPreferredSize().height));
             suggestions.addMouseListener(new MouseAdapter() {
                 @Override
@@ -251,13 +279,15 @@ public class AutocompleteGUI extends JFrame {
                     layout.createSequentialGroup()
                     .addGroup(layout.createParallelGroup(GroupLayout.Alignment.LEADING)
                        .addComponent(searchTextPanel, 0, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
-                       .addComponent(suggestionsPanel, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
+                       .addComponent(suggestionsPanel, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                       .addComponent(latency))
                        
              );
              layout.setVerticalGroup(
                 layout.createSequentialGroup()
                    .addComponent(searchTextPanel)
                    .addComponent(suggestionsPanel)
+                   .addComponent(latency)
              );
         }
         public void paintComponent(Graphics g) {
@@ -265,44 +295,92 @@ public class AutocompleteGUI extends JFrame {
         }
 
         /**
-         * Makes a call to the implementation of Autocomplete to get suggestions
-         * for the currently entered text.
+         * Requests suggestions for the currently entered text. The query runs on the
+         * worker thread after a short debounce; a newer request cancels this one, and
+         * only the newest result is published back to the EDT.
          * @param text string to search for
          */
         public void getSuggestions(String text) {
-            text = text.trim();
-            if (text.equals("")) {
+            final String query = text.trim();
+            final long id = generation.incrementAndGet();
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            if (query.equals("")) {
+                pending = null;
                 suggestions.clearSelection();
                 suggestions.setVisible(false);
+                return;
             }
-            else {
-                int textLen = text.length();
-                Queue<String> resultQ = new Queue<String>();
-                Queue<Double> ds = new Queue<Double>();
-                for (String term : auto.topMatches(text, k)) {
-                    resultQ.enqueue(term);
-                    ds.enqueue(auto.weightOf(term));
-                }
-                if (!resultQ.isEmpty()) {
-                    results = new String[resultQ.size()];
-                    for (int i = 0; i < results.length; i++) {
-                        results[i] = resultQ.dequeue();
-                        /*Modified to include the weights of each term and a delimiter "|" to ensure that 
-                         * the search does not include the weight.
-                         */
-                        results[i] = "<html><span style=\"color:#C0C0C0;\">" + ds.dequeue() + "</span>" + "|" 
-                            + results[i].substring(0, textLen) + "<b>" + results[i].substring(textLen) + "</b></html>";
+
+            final long requested = System.nanoTime();
+            pending = worker.schedule(new Runnable() {
+                public void run() {
+                    if (generation.get() != id) {
+                        return;
                     }
-                    suggestions.setListData(results);
-                    suggestions.setVisible(true);
-                    //suggestions.setSelectedIndex(0); // Pressing enter automatically selects the first one if nothing has been 
-                }
-                else {
-                    // No suggestions
-                    suggestions.setVisible(false);
-                    suggestions.clearSelection();
+                    long start = System.nanoTime();
+                    final String[] computed = computeSuggestions(query);
+                    final long computeNanos = System.nanoTime() - start;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            if (generation.get() == id) {
+                                publish(computed, computeNanos, requested);
+                            }
+                        }
+                    });
                 }
+            }, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Makes a call to the implementation of Autocomplete to get suggestions
+         * for the given text and formats them. Runs on the worker thread.
+         * @param text string to search for, already trimmed and non-empty
+         * @return formatted suggestions, possibly empty
+         */
+        private String[] computeSuggestions(String text) {
+            int textLen = text.length();
+            Queue<String> resultQ = new Queue<String>();
+            Queue<Double> ds = new Queue<Double>();
+            for (String term : auto.topMatches(text, k)) {
+                resultQ.enqueue(term);
+                ds.enqueue(auto.weightOf(term));
+            }
+            String[] computed = new String[resultQ.size()];
+            for (int i = 0; i < computed.length; i++) {
+                String term = resultQ.dequeue();
+                /*Modified to include the weights of each term and a delimiter "|" to ensure that 
+                 * the search does not include the weight.
+                 */
+                computed[i] = "<html><span style=\"color:#C0C0C0;\">" + ds.dequeue() + "</span>" + "|" 
+                    + term.substring(0, textLen) + "<b>" + term.substring(textLen) + "</b></html>";
+            }
+            return computed;
+        }
+
+        /**
+         * Shows computed suggestions and updates the latency label. Runs on the EDT.
+         * @param computed formatted suggestions
+         * @param computeNanos time spent in computeSuggestions
+         * @param requested System.nanoTime() of the keystroke that asked for them
+         */
+        private void publish(String[] computed, long computeNanos, long requested) {
+            long start = System.nanoTime();
+            if (computed.length > 0) {
+                results = computed;
+                suggestions.setListData(results);
+                suggestions.setVisible(true);
+                //suggestions.setSelectedIndex(0); // Pressing enter automatically selects the first one if nothing has been 
+            }
+            else {
+                // No suggestions
+                suggestions.setVisible(false);
+                suggestions.clearSelection();
             }
+            long end = System.nanoTime();
+            latency.setText(String.format("compute %.2f ms   render %.2f ms   keystroke to screen %.1f ms",
+                                          computeNanos / 1e6, (end - start) / 1e6, (end - requested) / 1e6));
         }
         
         public String getSelectedText() {
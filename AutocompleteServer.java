@@ -0,0 +1,400 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small standalone HTTP front end for Autocomplete, built on the JDK's built-in server.
+ * Endpoints:
+ *   /complete?q=prefix&amp;k=5   top k completions with weights
+ *   /weight?term=term          weight of a single term
+ *   /spell?q=word&amp;k=5&amp;dist=1 spelling suggestions
+ * Each request runs on its own virtual thread when the JDK provides them (21 and up),
+ * otherwise on a cached thread pool. Responses are JSON written into a buffer sized
+ * for the expected output, then sent with a fixed Content-Length.
+ *
+ * Usage: java AutocompleteServer input.txt [port]
+ *        java AutocompleteServer --load input.txt [concurrency] [requests] [k]
+ * The second form starts the server on a loopback port, drives it with concurrent
+ * clients and reports throughput and p50/p99/p999 latency.
+ * @author William Zhuang
+ */
+public class AutocompleteServer {
+    /** Default number of completions when k is not given. */
+    private static final int DEFAULT_K = 5;
+    /** Upper bound on k, so one request cannot serialize the whole dictionary. */
+    private static final int MAX_K = 1000;
+
+    static {
+        // Headers and body go out in separate writes; without TCP_NODELAY every
+        // response waits on the client's delayed ACK.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Autocomplete auto;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+      * Creates a server bound to the given address. Call start() to begin serving.
+      * @param auto0 Dictionary to serve. It is only read, never modified.
+      * @param address Address and port to bind; port 0 picks a free port.
+      * @throws IOException if the address cannot be bound.
+      */
+    public AutocompleteServer(Autocomplete auto0, InetSocketAddress address) throws IOException {
+        auto = auto0;
+        executor = newExecutor();
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/complete", new CompleteHandler());
+        server.createContext("/weight", new WeightHandler());
+        server.createContext("/spell", new SpellHandler());
+    }
+
+    /** Starts serving requests. */
+    public void start() {
+        server.start();
+    }
+
+    /** Stops the server and its executor. */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** @return Port the server is bound to. */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+      * Returns a virtual-thread-per-task executor when the running JDK has one.
+      * It is looked up reflectively so the server still compiles and runs on older JDKs,
+      * where it falls back to a cached pool of platform threads.
+      * @return Executor for request handlers.
+      */
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Handles /complete?q=prefix&amp;k=5. */
+    private class CompleteHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            HashMap<String, String> params = parseQuery(exchange);
+            String prefix = params.getOrDefault("q", "");
+            int k = parseInt(params.get("k"), DEFAULT_K);
+            if (k < 0 || k > MAX_K) {
+                send(exchange, 400, error("k must be between 0 and " + MAX_K));
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder(32 + k * (prefix.length() + 48));
+            sb.append("{\"q\":");
+            appendString(sb, prefix);
+            sb.append(",\"results\":[");
+            boolean first = true;
+            for (String term : auto.topMatches(prefix, k)) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append("{\"term\":");
+                appendString(sb, term);
+                sb.append(",\"weight\":");
+                appendNumber(sb, auto.weightOf(term));
+                sb.append('}');
+            }
+            sb.append("]}");
+            send(exchange, 200, sb);
+        }
+    }
+
+    /** Handles /weight?term=term. */
+    private class WeightHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            String term = parseQuery(exchange).get("term");
+            if (term == null) {
+                send(exchange, 400, error("missing term"));
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder(32 + term.length());
+            sb.append("{\"term\":");
+            appendString(sb, term);
+            sb.append(",\"weight\":");
+            appendNumber(sb, auto.weightOf(term));
+            sb.append('}');
+            send(exchange, 200, sb);
+        }
+    }
+
+    /** Handles /spell?q=word&amp;k=5&amp;dist=1. */
+    private class SpellHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            HashMap<String, String> params = parseQuery(exchange);
+            String word = params.get("q");
+            int k = parseInt(params.get("k"), DEFAULT_K);
+            int dist = parseInt(params.get("dist"), 1);
+            if (word == null) {
+                send(exchange, 400, error("missing q"));
+                return;
+            }
+            if (k < 0 || k > MAX_K || dist < 0 || dist > word.length()) {
+                send(exchange, 400, error("k or dist out of range"));
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder(32 + k * (word.length() + 48));
+            sb.append("{\"q\":");
+            appendString(sb, word);
+            sb.append(",\"results\":[");
+            boolean first = true;
+            for (String term : auto.spellCheck(word, dist, k)) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append("{\"term\":");
+                appendString(sb, term);
+                sb.append(",\"weight\":");
+                appendNumber(sb, auto.weightOf(term));
+                sb.append('}');
+            }
+            sb.append("]}");
+            send(exchange, 200, sb);
+        }
+    }
+
+    /**
+      * Decodes the query string of a request.
+      * @param exchange Request being handled.
+      * @return Map from parameter name to decoded value.
+      */
+    private static HashMap<String, String> parseQuery(HttpExchange exchange) {
+        HashMap<String, String> params = new HashMap<String, String>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                           URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+      * @param s String to parse, possibly null.
+      * @param fallback Value used when s is null, i.e. the parameter was not given.
+      * @return Parsed value, or -1 if s is not a number, so that the callers' range
+      *         checks reject the request with a 400.
+      */
+    private static int parseInt(String s, int fallback) {
+        if (s == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+      * @param message Error message.
+      * @return JSON error body.
+      */
+    private static StringBuilder error(String message) {
+        StringBuilder sb = new StringBuilder(16 + message.length());
+        sb.append("{\"error\":");
+        appendString(sb, message);
+        return sb.append('}');
+    }
+
+    /**
+      * Appends a JSON string literal, escaping quotes, backslashes and control characters.
+      * @param sb Buffer to append to.
+      * @param s String to append.
+      */
+    static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+      * Appends a JSON number. JSON has no NaN or Infinity, so those become null.
+      * @param sb Buffer to append to.
+      * @param d Number to append.
+      */
+    static void appendNumber(StringBuilder sb, double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            sb.append("null");
+        } else {
+            sb.append(d);
+        }
+    }
+
+    /**
+      * Sends a JSON response with a fixed length.
+      * @param exchange Request being answered.
+      * @param status HTTP status code.
+      * @param body JSON body.
+      * @throws IOException if the client went away.
+      */
+    private static void send(HttpExchange exchange, int status, CharSequence body)
+        throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+      * Drives a server with concurrent clients issuing /complete requests for random
+      * prefixes of the given terms, and prints throughput and latency percentiles.
+      * @param port Loopback port of the server.
+      * @param terms Terms to draw prefixes from.
+      * @param concurrency Number of concurrent clients.
+      * @param requests Total number of requests.
+      * @param k Number of completions per request.
+      * @throws InterruptedException if interrupted while waiting for the clients.
+      */
+    static void load(int port, String[] terms, int concurrency, int requests, int k)
+        throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] clients = new Thread[concurrency];
+
+        long start = System.nanoTime();
+        for (int t = 0; t < concurrency; t += 1) {
+            final long seed = t;
+            clients[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                byte[] buffer = new byte[8192];
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    String term = terms[random.nextInt(terms.length)];
+                    String prefix = term.substring(0, 1 + random.nextInt(Math.min(3, term.length())));
+                    long begin = System.nanoTime();
+                    try {
+                        URL url = new URL("http://127.0.0.1:" + port + "/complete?k=" + k + "&q="
+                                          + URLEncoder.encode(prefix, StandardCharsets.UTF_8));
+                        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+                        InputStream in = conn.getInputStream();
+                        while (in.read(buffer) >= 0) {
+                            continue;
+                        }
+                        in.close();
+                        if (conn.getResponseCode() != 200) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - begin;
+                }
+            });
+            clients[t].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("concurrency %d, %d requests, %d failed",
+                                         concurrency, requests, failures.get()));
+        System.out.println(String.format("  throughput %,12.0f req/s", requests / seconds));
+        System.out.println(String.format("  p50        %12.3f ms", percentile(latencies, 0.50)));
+        System.out.println(String.format("  p99        %12.3f ms", percentile(latencies, 0.99)));
+        System.out.println(String.format("  p999       %12.3f ms", percentile(latencies, 0.999)));
+    }
+
+    /**
+      * @param sorted Sorted latencies in nanoseconds.
+      * @param p Percentile between 0 and 1.
+      * @return Latency at that percentile in milliseconds.
+      */
+    private static double percentile(long[] sorted, double p) {
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(i, 0)] / 1e6;
+    }
+
+    /**
+      * Serves a dictionary, or with --load benchmarks it over loopback.
+      * @param args See the class comment.
+      * @throws Exception if the server cannot start.
+      */
+    public static void main(String[] args) throws Exception {
+        boolean loadTest = args.length > 0 && args[0].equals("--load");
+        int arg = loadTest ? 1 : 0;
+
+        // read in the data
+        In in = new In(args[arg]);
+        int N = Integer.parseInt(in.readLine().trim());
+        String[] terms = new String[N];
+        double[] weights = new double[N];
+        for (int i = 0; i < N; i += 1) {
+            String line = in.readLine();
+            int tab = line.indexOf('\t');
+            weights[i] = Double.parseDouble(line.substring(0, tab).trim());
+            terms[i] = line.substring(tab + 1);
+        }
+        Autocomplete auto = new Autocomplete(terms, weights);
+
+        if (loadTest) {
+            int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+            int requests = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+            int k = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_K;
+            AutocompleteServer server = new AutocompleteServer(auto,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.start();
+            // Warm up before measuring.
+            load(server.port(), terms, concurrency, Math.min(requests, 10000), k);
+            load(server.port(), terms, concurrency, requests, k);
+            server.stop();
+        } else {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            AutocompleteServer server = new AutocompleteServer(auto, new InetSocketAddress(port));
+            server.start();
+            System.out.println("Serving " + N + " terms on port " + server.port());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+/**
+ * Blocked Bloom filter over strings. Every key sets and tests its bits within a single
+ * 512 bit block, one 64 byte cache line, so a lookup costs one cache miss at most
+ * and most absent keys are rejected after the first word of the block is read.
+ * Keys may be a prefix of a longer string, so no substring has to be allocated.
+ * Sized from the expected number of keys and the target false-positive rate.
+ * @author William Zhuang
+ */
+public class BloomFilter {
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+    private static final int MAX_HASHES = 16;
+
+    private final long[] bits;
+    private final int blocks;
+    private final int hashes;
+    private long count;
+
+    /**
+      * Constructs an empty filter.
+      * @param expected Number of keys the filter is sized for.
+      * @param fpr Target false-positive rate once expected keys are added, in (0, 1).
+      */
+    public BloomFilter(long expected, double fpr) {
+        if (!(fpr > 0 && fpr < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be in (0, 1).");
+        }
+        double bitsPerKey = -Math.log(fpr) / (Math.log(2) * Math.log(2));
+        long totalBits = (long) Math.ceil(Math.max(1, expected) * bitsPerKey);
+        long blockCount = (totalBits + BLOCK_BITS - 1) / BLOCK_BITS;
+        if (blockCount > Integer.MAX_VALUE / BLOCK_WORDS) {
+            throw new IllegalArgumentException("Filter would be too large.");
+        }
+        blocks = (int) blockCount;
+        bits = new long[blocks * BLOCK_WORDS];
+        hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    /**
+      * 64 bit hash of the first length characters of s: FNV-1a over the chars,
+      * finished with MurmurHash3's avalanche step.
+      * @param s String to hash.
+      * @param length Number of leading characters to hash.
+      * @return Hash.
+      */
+    private static long hash(String s, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i += 1) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+      * @param h Hash of the key.
+      * @return Index of the first word of the key's block.
+      */
+    private int block(long h) {
+        return (int) (((h >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    /**
+      * Adds the first length characters of s.
+      * @param s String holding the key.
+      * @param length Length of the key.
+      */
+    public void add(String s, int length) {
+        long h = hash(s, length);
+        int base = block(h);
+        int bit = (int) h & (BLOCK_BITS - 1);
+        int step = (int) (h >>> 9) & (BLOCK_BITS - 1) | 1;
+        for (int i = 0; i < hashes; i += 1) {
+            bits[base + (bit >>> 6)] |= 1L << bit;
+            bit = (bit + step) & (BLOCK_BITS - 1);
+        }
+        count += 1;
+    }
+
+    /**
+      * @param s String to add.
+      */
+    public void add(String s) {
+        add(s, s.length());
+    }
+
+    /**
+      * Tests the first length characters of s.
+      * @param s String holding the key.
+      * @param length Length of the key.
+      * @return false if the key was certainly never added.
+      */
+    public boolean mightContain(String s, int length) {
+        long h = hash(s, length);
+        int base = block(h);
+        int bit = (int) h & (BLOCK_BITS - 1);
+        int step = (int) (h >>> 9) & (BLOCK_BITS - 1) | 1;
+        for (int i = 0; i < hashes; i += 1) {
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            bit = (bit + step) & (BLOCK_BITS - 1);
+        }
+        return true;
+    }
+
+    /**
+      * @param s String to test.
+      * @return false if s was certainly never added.
+      */
+    public boolean mightContain(String s) {
+        return mightContain(s, s.length());
+    }
+
+    /** @return Number of keys added, counting repeats. */
+    public long count() {
+        return count;
+    }
+
+    /** @return Estimated heap used by the filter. */
+    public long bytes() {
+        return TrieStats.objectBytes(TrieStats.REF + 4 + 4 + 8)
+               + TrieStats.arrayBytes(bits.length, 8);
+    }
+
+    /**
+      * Estimates the current false-positive rate from the fraction of bits set, which
+      * also accounts for filters that were given more keys than they were sized for.
+      * @return Estimated probability that an absent key passes.
+      */
+    public double expectedFpr() {
+        long set = 0;
+        for (long word : bits) {
+            set += Long.bitCount(word);
+        }
+        return Math.pow((double) set / ((long) bits.length * 64), hashes);
+    }
+
+    /** @return A human readable description of the filter. */
+    public String toString() {
+        return String.format("BloomFilter(%,d keys, %,d bytes, %.1f bits/key, %d hashes, "
+                             + "est. fpr %.4f)", count, bytes(),
+                             count == 0 ? 0.0 : 64.0 * bits.length / count, hashes,
+                             expectedFpr());
+    }
+
+    /**
+      * Benchmarks Trie.find on miss-heavy workloads with and without filters. Random
+      * misses are lowercase tokens of the same lengths as real words; near misses are
+      * real words with one character replaced, which walk deep into the trie.
+      * Usage: java BloomFilter file [fpr] [prefixLength] [hitRate]
+      * @param args Word list, target false-positive rate, longest filtered prefix and
+      *             fraction of queries that are real words.
+      */
+    public static void main(String[] args) {
+        double fpr = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        int prefixLength = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        double hitRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+
+        In in = new In(args[0]);
+        ArrayList<String> words = new ArrayList<String>();
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        Trie plain = new Trie();
+        Trie filtered = new Trie();
+        for (String word : words) {
+            plain.insert(word);
+            filtered.insert(word);
+        }
+        filtered.enableFilters(fpr, prefixLength);
+        System.out.println(filtered.filterReport());
+        for (boolean near : new boolean[] {false, true}) {
+            System.out.println(near ? "near misses" : "random misses");
+            run(plain, filtered, queries(words, hitRate, near));
+        }
+    }
+
+    /**
+      * @param words Real words.
+      * @param hitRate Fraction of queries that are real words.
+      * @param near Whether misses are near misses rather than random tokens.
+      * @return Queries.
+      */
+    private static String[] queries(List<String> words, double hitRate, boolean near) {
+        Random random = new Random(61);
+        String[] queries = new String[1 << 20];
+        for (int i = 0; i < queries.length; i += 1) {
+            String word = words.get(random.nextInt(words.size()));
+            if (random.nextDouble() < hitRate) {
+                queries[i] = word;
+                continue;
+            }
+            char[] token = word.toCharArray();
+            if (near) {
+                token[random.nextInt(token.length)] = (char) ('a' + random.nextInt(26));
+            } else {
+                for (int j = 0; j < token.length; j += 1) {
+                    token[j] = (char) ('a' + random.nextInt(26));
+                }
+            }
+            queries[i] = new String(token);
+        }
+        return queries;
+    }
+
+    /**
+      * Checks that both tries agree, then times full word and prefix finds on each.
+      * @param plain Trie without filters.
+      * @param filtered Trie with filters.
+      * @param queries Queries to run.
+      */
+    private static void run(Trie plain, Trie filtered, String[] queries) {
+        long passed = 0;
+        long misses = 0;
+        for (int i = 0; i < queries.length; i += 1) {
+            boolean inTrie = plain.find(queries[i], true);
+            if (inTrie != filtered.find(queries[i], true)) {
+                throw new IllegalStateException("Filtered Trie disagrees on " + queries[i]);
+            }
+            if (!inTrie) {
+                misses += 1;
+                passed += filtered.wordFilter().mightContain(queries[i]) ? 1 : 0;
+            }
+        }
+        System.out.printf("  measured fpr %.4f over %,d misses%n", (double) passed / misses, misses);
+
+        for (boolean isFullWord : new boolean[] {true, false}) {
+            for (int round = 0; round < 3; round += 1) {
+                for (Trie trie : new Trie[] {plain, filtered}) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < queries.length; i += 1) {
+                        passed += trie.find(queries[i], isFullWord) ? 1 : 0;
+                    }
+                    if (round == 2) {
+                        System.out.printf("  %-9s %-6s %6.1f ns/find%n",
+                                          trie == plain ? "plain" : "filtered",
+                                          isFullWord ? "word" : "prefix",
+                                          (double) (System.nanoTime() - start) / queries.length);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Prefix-Trie that supports find() and insert() from any number of threads without
+ * locks. Every node has a fixed array of 32 child slots, allocated on its first
+ * child; the children whose letters share their low 5 bits hang off the same slot
+ * in an immutable chain. A new child is pushed onto the head of its slot's chain
+ * with compareAndSet, so a writer only retries if another thread changed that same
+ * slot first, and readers never wait.
+ * Operations are linearizable: an insert takes effect at the write that marks its
+ * last node as a word, and a find at its read of that flag.
+ * @author William Zhuang
+ */
+public class ConcurrentTrie {
+    private static final int WIDTH = 32;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Node[].class);
+    private static final VarHandle SLOTS;
+
+    static {
+        try {
+            SLOTS = MethodHandles.lookup().findVarHandle(Node.class, "slots", Node[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Node root;
+
+    /** Constructs an empty ConcurrentTrie. */
+    public ConcurrentTrie() {
+        root = new Node((char) 0, null);
+    }
+
+    /**
+      * Traverses the trie to check if the String exists.
+      * @param s String to be found.
+      * @param isFullWord If true, will only return true if the String is a word
+      *                   that exists in the Trie.
+      * @return Boolean designating whether String exists in the Trie.
+      */
+    public boolean find(String s, boolean isFullWord) {
+        Node pointer = root;
+        for (int i = 0; i < s.length(); i += 1) {
+            pointer = child(pointer, s.charAt(i));
+            if (pointer == null) {
+                return false;
+            }
+        }
+        return !isFullWord || pointer.exists;
+    }
+
+    /**
+      * Inserts a string into the trie. Safe to call concurrently with find and insert.
+      * @param s String to be inserted.
+      */
+    public void insert(String s) {
+        if (s == null || s.isEmpty()) {
+            throw new IllegalArgumentException("Null or empty strings cannot be added to a Trie.");
+        }
+        Node pointer = root;
+        for (int i = 0; i < s.length(); i += 1) {
+            pointer = childOrAdd(pointer, s.charAt(i));
+        }
+        pointer.exists = true;
+    }
+
+    /**
+      * Follows the link for a character.
+      * @param x Node to follow from.
+      * @param c Letter of the link.
+      * @return Child of x for c, or null if there is none.
+      */
+    private static Node child(Node x, char c) {
+        Node[] slots = x.slots;
+        if (slots == null) {
+            return null;
+        }
+        for (Node n = (Node) SLOT.getAcquire(slots, c & (WIDTH - 1)); n != null; n = n.next) {
+            if (n.letter == c) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /**
+      * Follows the link for a character, installing a new child if there is none.
+      * @param x Node to follow from.
+      * @param c Letter of the link.
+      * @return Child of x for c.
+      */
+    private static Node childOrAdd(Node x, char c) {
+        Node[] slots = x.slots;
+        if (slots == null) {
+            SLOTS.compareAndSet(x, null, new Node[WIDTH]);
+            slots = x.slots;
+        }
+        int i = c & (WIDTH - 1);
+        while (true) {
+            Node head = (Node) SLOT.getAcquire(slots, i);
+            for (Node n = head; n != null; n = n.next) {
+                if (n.letter == c) {
+                    return n;
+                }
+            }
+            Node fresh = new Node(c, head);
+            if (SLOT.compareAndSet(slots, i, head, fresh)) {
+                return fresh;
+            }
+            // Another thread changed this slot; rescan it in case it added c.
+        }
+    }
+
+    /**
+      * Loads a word list, one word per line, with 1 to N threads and reports insert
+      * throughput for each thread count.
+      * Usage: java ConcurrentTrie file [maxThreads]
+      * @param args Name of the word list and the largest number of threads.
+      */
+    public static void main(String[] args) throws InterruptedException {
+        In in = new In(args[0]);
+        ArrayList<String> list = new ArrayList<String>();
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty()) {
+                list.add(word);
+            }
+        }
+        String[] words = list.toArray(new String[0]);
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d words, %d available processors%n", words.length,
+                          Runtime.getRuntime().availableProcessors());
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round += 1) {
+                ConcurrentTrie trie = new ConcurrentTrie();
+                long time = load(trie, words, threads);
+                best = Math.min(best, time);
+                for (String word : words) {
+                    if (!trie.find(word, true)) {
+                        throw new IllegalStateException("Lost insert of \"" + word + "\"");
+                    }
+                }
+            }
+            System.out.printf("%3d threads: %,12.0f inserts/s%n", threads, words.length / (best / 1e9));
+            if (threads < maxThreads && threads * 2 > maxThreads) {
+                threads = maxThreads / 2;
+            }
+        }
+    }
+
+    /**
+      * Inserts every word, with the threads taking words from a shared counter.
+      * @param trie Trie to load.
+      * @param words Words to insert.
+      * @param threads Number of threads.
+      * @return Elapsed nanoseconds.
+      */
+    private static long load(ConcurrentTrie trie, String[] words, int threads)
+        throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t += 1) {
+            workers[t] = new Thread(() -> {
+                // Claim words in batches so the counter itself is not the bottleneck.
+                for (int start = next.getAndAdd(256); start < words.length;
+                     start = next.getAndAdd(256)) {
+                    for (int i = start; i < Math.min(start + 256, words.length); i += 1) {
+                        trie.insert(words[i]);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+      * A single node in a ConcurrentTrie. The letter and the next link in its slot's
+      * chain are fixed before the node is published; slots is set once, by CAS.
+      */
+    private static class Node {
+        final char letter;
+        final Node next;
+        volatile boolean exists;
+        volatile Node[] slots;
+
+        /**
+          * Constructor for the Node.
+          * @param letter0 Letter of the link into this node.
+          * @param next0 Next node in the same slot.
+          */
+        Node(char letter0, Node next0) {
+            letter = letter0;
+            next = next0;
+        }
+    }
+}
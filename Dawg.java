@@ -0,0 +1,263 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+/**
+ * Minimal deterministic acyclic word graph. Accepts exactly the same strings as a
+ * Trie over the same words, but equivalent subtrees, such as the many words ending
+ * in "'s" or "ing", are stored once. Built from sorted input in a single pass by
+ * incremental minimization (Daciuk, Mihov, Watson and Watson, 2000): once a word
+ * has been added, the nodes of the previous word below their common prefix can never
+ * change again, so each is either replaced by an equivalent registered node or
+ * registered itself. Build time is linear in the total length of the words.
+ * A Dawg cannot be modified after construction, so it may be shared across threads.
+ * @author William Zhuang
+ */
+public class Dawg {
+    /** Shared by every node without children. */
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root;
+    private final int size;
+
+    /**
+      * Builds the minimal graph for a list of words.
+      * @param sortedWords Non-empty words in ascending String order. Repeats are ignored.
+      */
+    public Dawg(Iterable<String> sortedWords) {
+        HashMap<Node, Node> register = new HashMap<Node, Node>();
+        // Nodes of the previous word that are not yet minimized, below the root.
+        ArrayList<Node> unchecked = new ArrayList<Node>();
+        Node start = new Node();
+        String previous = "";
+        int count = 0;
+
+        for (String word : sortedWords) {
+            if (word == null || word.isEmpty()) {
+                throw new IllegalArgumentException("Null or empty strings cannot be added to a Dawg.");
+            }
+            int cmp = word.compareTo(previous);
+            if (cmp < 0) {
+                throw new IllegalArgumentException("Words are not sorted: \"" + word
+                                                   + "\" follows \"" + previous + "\".");
+            }
+            if (cmp == 0) {
+                continue;
+            }
+
+            int common = 0;
+            int limit = Math.min(word.length(), previous.length());
+            while (common < limit && word.charAt(common) == previous.charAt(common)) {
+                common += 1;
+            }
+            minimize(start, unchecked, common, register);
+
+            Node x = common == 0 ? start : unchecked.get(common - 1);
+            for (int d = common; d < word.length(); d += 1) {
+                Node next = new Node();
+                x.append(word.charAt(d), next);
+                unchecked.add(next);
+                x = next;
+            }
+            x.exists = true;
+            previous = word;
+            count += 1;
+        }
+        minimize(start, unchecked, 0, register);
+        root = start;
+        size = count;
+    }
+
+    /**
+      * Replaces or registers the unchecked nodes deeper than depth, deepest first, so
+      * every node is compared only after its children are final.
+      * @param start Root of the graph.
+      * @param unchecked Nodes on the path of the previous word, by depth minus one.
+      * @param depth Number of nodes to keep unchecked.
+      * @param register Every minimized node, keyed by itself.
+      */
+    private static void minimize(Node start, ArrayList<Node> unchecked, int depth,
+                                 HashMap<Node, Node> register) {
+        for (int i = unchecked.size() - 1; i >= depth; i -= 1) {
+            Node child = unchecked.remove(i);
+            Node parent = i == 0 ? start : unchecked.get(i - 1);
+            Node existing = register.get(child);
+            if (existing != null) {
+                // The child is always the most recently appended link of its parent.
+                parent.children[parent.children.length - 1] = existing;
+            } else {
+                register.put(child, child);
+            }
+        }
+    }
+
+    /**
+      * Traverses the graph to check if the String exists.
+      * @param s String to be found.
+      * @param isFullWord If true, will only return true if the String is a word
+      *                   that exists in the Dawg.
+      * @return Boolean designating whether String exists in the Dawg.
+      */
+    public boolean find(String s, boolean isFullWord) {
+        Node pointer = root;
+        for (int i = 0; i < s.length(); i += 1) {
+            int j = Arrays.binarySearch(pointer.keys, s.charAt(i));
+            if (j < 0) {
+                return false;
+            }
+            pointer = pointer.children[j];
+        }
+        return !isFullWord || pointer.exists;
+    }
+
+    /** @return Number of distinct words in the Dawg. */
+    public int size() {
+        return size;
+    }
+
+    /**
+      * Reports node counts, depth, branching and estimated heap usage. Shared nodes
+      * are counted once, at the depth they are first reached.
+      * @return TrieStats describing this Dawg.
+      */
+    public TrieStats stats() {
+        TrieStats stats = new TrieStats("Dawg");
+        stats(root, 0, stats, new IdentityHashMap<Node, Boolean>());
+        return stats;
+    }
+
+    /**
+      * Records every node below x that has not been seen yet.
+      * @param x Current node.
+      * @param depth Depth of x.
+      * @param stats Report being filled in.
+      * @param seen Nodes already recorded.
+      */
+    private static void stats(Node x, int depth, TrieStats stats,
+                              IdentityHashMap<Node, Boolean> seen) {
+        if (seen.put(x, Boolean.TRUE) != null) {
+            return;
+        }
+        stats.recordNode(depth, x.children.length, x.exists);
+        stats.addNodeBytes(TrieStats.objectBytes(1 + 4 + 2 * TrieStats.REF));
+        if (x.children != NO_CHILDREN) {
+            stats.addNodeBytes(TrieStats.arrayBytes(x.keys.length, 2)
+                               + TrieStats.arrayBytes(x.children.length, TrieStats.REF));
+        }
+        for (Node child : x.children) {
+            stats(child, depth + 1, stats, seen);
+        }
+    }
+
+    /**
+      * Builds a Dawg and a Trie from a sorted word list, one word per line, checks that
+      * they agree and prints their reports.
+      * @param args Name of the word list.
+      */
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        ArrayList<String> words = new ArrayList<String>();
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        words.sort(null);
+
+        long start = System.nanoTime();
+        Dawg dawg = new Dawg(words);
+        long dawgTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        Trie trie = new Trie();
+        for (String word : words) {
+            trie.insert(word);
+        }
+        long trieTime = System.nanoTime() - start;
+
+        for (String word : words) {
+            for (int d = 1; d <= word.length(); d += 1) {
+                String s = word.substring(0, d);
+                if (dawg.find(s, true) != trie.find(s, true) || !dawg.find(s, false)) {
+                    throw new IllegalStateException("Dawg and Trie disagree on \"" + s + "\"");
+                }
+            }
+        }
+
+        TrieStats dawgStats = dawg.stats();
+        TrieStats trieStats = trie.stats();
+        System.out.print(dawgStats);
+        System.out.print(trieStats);
+        System.out.printf("%d words: Dawg %,d nodes in %.1f ms, Trie %,d nodes in %.1f ms, "
+                          + "%.1fx fewer nodes, %.1fx fewer bytes%n", dawg.size(),
+                          dawgStats.nodeCount(), dawgTime / 1e6,
+                          trieStats.nodeCount(), trieTime / 1e6,
+                          (double) trieStats.nodeCount() / dawgStats.nodeCount(),
+                          (double) trieStats.totalBytes() / dawgStats.totalBytes());
+    }
+
+    /**
+      * A single state of the graph, with its letters sorted in keys parallel to
+      * children. Two nodes are equal if they are both or neither final and have the
+      * same letters leading to the same child objects, which is state equivalence
+      * once the children themselves are minimized. Nodes only change while they are
+      * unchecked, before they enter the register.
+      */
+    private static class Node {
+        boolean exists;
+        char[] keys;
+        Node[] children;
+        int hash;
+
+        /**
+          * Constructor for the Node.
+          */
+        Node() {
+            keys = NO_KEYS;
+            children = NO_CHILDREN;
+        }
+
+        /**
+          * Adds a link after every existing one.
+          * @param c Letter of the link, greater than every existing letter.
+          * @param child Node to link to.
+          */
+        void append(char c, Node child) {
+            int n = keys.length;
+            keys = Arrays.copyOf(keys, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            keys[n] = c;
+            children[n] = child;
+        }
+
+        @Override
+        public int hashCode() {
+            if (hash == 0) {
+                int h = exists ? 1 : 2;
+                for (int i = 0; i < keys.length; i += 1) {
+                    h = 31 * (31 * h + keys[i]) + System.identityHashCode(children[i]);
+                }
+                hash = h == 0 ? 1 : h;
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) o;
+            if (exists != other.exists || !Arrays.equals(keys, other.keys)) {
+                return false;
+            }
+            for (int i = 0; i < children.length; i += 1) {
+                if (children[i] != other.children[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+/**
+ * Restricted glob pattern compiled into a small nondeterministic automaton, meant to
+ * be walked together with a trie so whole subtrees are skipped once no state is left.
+ * Syntax:
+ *     ? or .        any single character
+ *     *             any sequence of characters, including none
+ *     [abc] [a-z]   any character in the class; [^...] or [!...] negates it
+ *     \x            the character x itself
+ * Every other character matches itself, and a pattern must match the whole word.
+ * The automaton has one state per element plus an accepting state, so a set of states
+ * fits in a long; patterns are limited to 63 elements.
+ * @author William Zhuang
+ */
+public class GlobPattern {
+    private static final byte LITERAL = 0;
+    private static final byte ANY = 1;
+    private static final byte CLASS = 2;
+    private static final byte STAR = 3;
+
+    private final String source;
+    private final int size;
+    private final byte[] kinds;
+    private final char[] literals;
+    /** Inclusive ranges of each class, as pairs of first and last character. */
+    private final String[] classes;
+    private final boolean[] negated;
+    /** States whose element is a literal. */
+    private final long literalStates;
+
+    /**
+      * Compiles a pattern.
+      * @param pattern Pattern in the syntax above.
+      */
+    public GlobPattern(String pattern) {
+        source = pattern;
+        byte[] k = new byte[pattern.length()];
+        char[] lit = new char[pattern.length()];
+        String[] cls = new String[pattern.length()];
+        boolean[] neg = new boolean[pattern.length()];
+        int n = 0;
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            i += 1;
+            if (c == '*') {
+                // Consecutive stars match the same words as one.
+                if (n > 0 && k[n - 1] == STAR) {
+                    continue;
+                }
+                k[n] = STAR;
+            } else if (c == '?' || c == '.') {
+                k[n] = ANY;
+            } else if (c == '[') {
+                k[n] = CLASS;
+                if (i < pattern.length() && (pattern.charAt(i) == '^' || pattern.charAt(i) == '!')) {
+                    neg[n] = true;
+                    i += 1;
+                }
+                StringBuilder ranges = new StringBuilder();
+                boolean first = true;
+                while (i < pattern.length() && (pattern.charAt(i) != ']' || first)) {
+                    char lo = pattern.charAt(i);
+                    if (lo == '\\' && i + 1 < pattern.length()) {
+                        i += 1;
+                        lo = pattern.charAt(i);
+                    }
+                    char hi = lo;
+                    if (i + 2 < pattern.length() && pattern.charAt(i + 1) == '-'
+                        && pattern.charAt(i + 2) != ']') {
+                        hi = pattern.charAt(i + 2);
+                        i += 2;
+                        if (hi < lo) {
+                            throw new IllegalArgumentException("Bad range " + lo + "-" + hi
+                                                               + " in " + pattern);
+                        }
+                    }
+                    ranges.append(lo).append(hi);
+                    i += 1;
+                    first = false;
+                }
+                if (i == pattern.length()) {
+                    throw new IllegalArgumentException("Unclosed [ in " + pattern);
+                }
+                i += 1;
+                cls[n] = ranges.toString();
+            } else {
+                if (c == '\\') {
+                    if (i == pattern.length()) {
+                        throw new IllegalArgumentException("Trailing \\ in " + pattern);
+                    }
+                    c = pattern.charAt(i);
+                    i += 1;
+                }
+                k[n] = LITERAL;
+                lit[n] = c;
+            }
+            n += 1;
+            if (n > 63) {
+                throw new IllegalArgumentException("Patterns are limited to 63 elements.");
+            }
+        }
+
+        size = n;
+        kinds = Arrays.copyOf(k, n);
+        literals = Arrays.copyOf(lit, n);
+        classes = Arrays.copyOf(cls, n);
+        negated = Arrays.copyOf(neg, n);
+        long mask = 0;
+        for (int j = 0; j < n; j += 1) {
+            if (kinds[j] == LITERAL) {
+                mask |= 1L << j;
+            }
+        }
+        literalStates = mask;
+    }
+
+    /** @return States before any character is read. */
+    public long start() {
+        return closure(1L);
+    }
+
+    /**
+      * Adds the states reachable without reading a character: a star may match nothing.
+      * @param states Set of states.
+      * @return Closed set of states.
+      */
+    private long closure(long states) {
+        for (int i = 0; i < size; i += 1) {
+            if ((states & (1L << i)) != 0 && kinds[i] == STAR) {
+                states |= 1L << (i + 1);
+            }
+        }
+        return states;
+    }
+
+    /**
+      * Reads one character.
+      * @param states Current set of states.
+      * @param c Character read.
+      * @return Next set of states, or 0 if no word with this prefix can match.
+      */
+    public long step(long states, char c) {
+        long next = 0;
+        long live = states & ~(1L << size);
+        while (live != 0) {
+            int i = Long.numberOfTrailingZeros(live);
+            live &= live - 1;
+            byte kind = kinds[i];
+            if (kind == STAR) {
+                next |= 1L << i;
+            } else if (kind == ANY || kind == LITERAL && literals[i] == c
+                       || kind == CLASS && inClass(i, c)) {
+                next |= 1L << (i + 1);
+            }
+        }
+        return closure(next);
+    }
+
+    /**
+      * @param i Element holding a class.
+      * @param c Character to test.
+      * @return Whether c is in the class.
+      */
+    private boolean inClass(int i, char c) {
+        String ranges = classes[i];
+        for (int j = 0; j < ranges.length(); j += 2) {
+            if (ranges.charAt(j) <= c && c <= ranges.charAt(j + 1)) {
+                return !negated[i];
+            }
+        }
+        return negated[i];
+    }
+
+    /**
+      * @param states Set of states.
+      * @return Whether the characters read so far form a match.
+      */
+    public boolean accepts(long states) {
+        return (states & (1L << size)) != 0;
+    }
+
+    /**
+      * Tests whether only literal elements can read the next character, in which case
+      * the next characters are exactly literals(states) and a walker can look them up
+      * instead of trying every child.
+      * @param states Set of states.
+      * @return Whether every live state expects a literal.
+      */
+    public boolean onlyLiterals(long states) {
+        return (states & ~(1L << size) & ~literalStates) == 0;
+    }
+
+    /**
+      * @param states Set of states for which onlyLiterals is true.
+      * @return The distinct characters the states expect, in ascending order.
+      */
+    public char[] literals(long states) {
+        long live = states & ~(1L << size);
+        char[] out = new char[Long.bitCount(live)];
+        int n = 0;
+        while (live != 0) {
+            int i = Long.numberOfTrailingZeros(live);
+            live &= live - 1;
+            out[n] = literals[i];
+            n += 1;
+        }
+        Arrays.sort(out);
+        int distinct = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (distinct == 0 || out[i] != out[distinct - 1]) {
+                out[distinct] = out[i];
+                distinct += 1;
+            }
+        }
+        return Arrays.copyOf(out, distinct);
+    }
+
+    /**
+      * @param word Word to test.
+      * @return Whether the whole word matches the pattern.
+      */
+    public boolean matches(String word) {
+        long states = start();
+        for (int i = 0; i < word.length() && states != 0; i += 1) {
+            states = step(states, word.charAt(i));
+        }
+        return accepts(states);
+    }
+
+    /** @return The pattern as written. */
+    public String toString() {
+        return source;
+    }
+
+    /**
+      * Times Trie.match against testing every word of a word list with matches.
+      * Usage: java GlobPattern file pattern...
+      * @param args Word list, then the patterns to time.
+      */
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        ArrayList<String> words = new ArrayList<String>();
+        Trie trie = new Trie();
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty()) {
+                words.add(word);
+                trie.insert(word);
+            }
+        }
+        for (int p = 1; p < args.length; p += 1) {
+            GlobPattern glob = new GlobPattern(args[p]);
+            long walk = Long.MAX_VALUE;
+            long scan = Long.MAX_VALUE;
+            int found = 0;
+            for (int round = 0; round < 20; round += 1) {
+                long start = System.nanoTime();
+                found = 0;
+                for (String word : trie.match(args[p])) {
+                    found += 1;
+                }
+                walk = Math.min(walk, System.nanoTime() - start);
+                start = System.nanoTime();
+                int scanned = 0;
+                for (String word : words) {
+                    scanned += glob.matches(word) ? 1 : 0;
+                }
+                scan = Math.min(scan, System.nanoTime() - start);
+                if (scanned != found) {
+                    throw new IllegalStateException("Trie.match disagrees with a scan");
+                }
+            }
+            System.out.printf("%-12s %6d matches  trie %9.1f us  scan %9.1f us%n",
+                              args[p], found, walk / 1e3, scan / 1e3);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+/**
+ * Static, read-only trie in a few bits per node. The shape is stored as a level-order
+ * unary degree sequence (LOUDS): after a leading "10" for a virtual super-root, every
+ * node in breadth-first order contributes one 1 per child followed by a 0, so the
+ * whole shape takes 2n + 1 bits. Nodes are numbered in the same order, which makes
+ * the children of a node consecutive, and
+ *     first child of node x = rank1(select0(x + 1) + 1),
+ * where select0(k) is the position of the kth 0 and rank1(p) counts the 1s before p.
+ * Edges are labelled with the UTF-8 bytes of the words, one byte per node, and one
+ * more bit per node marks the ends of words. Supports the same find(s, isFullWord)
+ * as Trie, plus enumeration of the words with a prefix.
+ * @author William Zhuang
+ */
+public class SuccinctTrie {
+    private final BitVector louds;
+    private final BitVector terminal;
+    /** Label of the edge into node x is labels[x - 1]; the root has none. */
+    private final byte[] labels;
+    private final int nodes;
+    private final int size;
+
+    /**
+      * Builds the trie for a list of words.
+      * @param words Non-empty words in any order. Repeats are ignored.
+      * @throws IllegalArgumentException If a word is null, empty or holds half of a
+      *         surrogate pair, which has no UTF-8 encoding.
+      */
+    public SuccinctTrie(Iterable<String> words) {
+        ArrayList<byte[]> list = new ArrayList<byte[]>();
+        for (String word : words) {
+            if (word == null || word.isEmpty()) {
+                throw new IllegalArgumentException("Null or empty strings cannot be added "
+                                                   + "to a SuccinctTrie.");
+            }
+            if (unpairedSurrogate(word, 0) >= 0) {
+                throw new IllegalArgumentException("\"" + word + "\" has an unpaired surrogate.");
+            }
+            list.add(word.getBytes(StandardCharsets.UTF_8));
+        }
+        list.sort(Arrays::compareUnsigned);
+        int distinct = 0;
+        for (int i = 0; i < list.size(); i += 1) {
+            if (distinct == 0 || !Arrays.equals(list.get(i), list.get(distinct - 1))) {
+                list.set(distinct, list.get(i));
+                distinct += 1;
+            }
+        }
+        byte[][] sorted = list.subList(0, distinct).toArray(new byte[0][]);
+        size = distinct;
+
+        // Breadth-first over ranges of sorted words sharing their first depth bytes.
+        BitVector shape = new BitVector();
+        BitVector ends = new BitVector();
+        ByteArray edges = new ByteArray();
+        int[] lo = new int[16];
+        int[] hi = new int[16];
+        int[] depth = new int[16];
+        lo[0] = 0;
+        hi[0] = sorted.length;
+        int tail = 1;
+        shape.add(true);
+        shape.add(false);
+        for (int head = 0; head < tail; head += 1) {
+            int start = lo[head];
+            int end = hi[head];
+            int d = depth[head];
+            boolean exists = head > 0 && sorted[start].length == d;
+            ends.add(exists);
+            if (exists) {
+                start += 1;
+            }
+            int i = start;
+            while (i < end) {
+                byte b = sorted[i][d];
+                int j = i + 1;
+                while (j < end && sorted[j][d] == b) {
+                    j += 1;
+                }
+                if (tail == lo.length) {
+                    lo = Arrays.copyOf(lo, 2 * tail);
+                    hi = Arrays.copyOf(hi, 2 * tail);
+                    depth = Arrays.copyOf(depth, 2 * tail);
+                }
+                lo[tail] = i;
+                hi[tail] = j;
+                depth[tail] = d + 1;
+                tail += 1;
+                shape.add(true);
+                edges.add(b);
+                i = j;
+            }
+            shape.add(false);
+        }
+        nodes = tail;
+        louds = shape.finish();
+        terminal = ends.finish();
+        labels = edges.toArray();
+    }
+
+    /**
+      * Traverses the trie to check if the String exists.
+      * @param s String to be found.
+      * @param isFullWord If true, will only return true if the String is a word
+      *                   that exists in the trie.
+      * @return Boolean designating whether String exists in the trie.
+      */
+    public boolean find(String s, boolean isFullWord) {
+        int x = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                int bad = unpairedSurrogate(s, i);
+                if (bad < 0) {
+                    return find(x, s.substring(i).getBytes(StandardCharsets.UTF_8), isFullWord);
+                }
+                // No word holds half a pair, but Trie compares chars, so a query ending
+                // in a high surrogate is still a prefix of the words that complete it.
+                if (isFullWord || bad != s.length() - 1 
+                    || !Character.isHighSurrogate(s.charAt(bad))) {
+                    return false;
+                }
+                x = walk(x, s.substring(i, bad).getBytes(StandardCharsets.UTF_8));
+                return x >= 0 && completes(x, s.charAt(bad));
+            }
+            x = child(x, (byte) c);
+            if (x < 0) {
+                return false;
+            }
+        }
+        return !isFullWord || terminal.get(x);
+    }
+
+    /**
+      * Continues a lookup from node x over raw bytes.
+      * @param x Node reached so far.
+      * @param key Remaining bytes.
+      * @param isFullWord Whether the result must end a word.
+      * @return Whether the path exists.
+      */
+    private boolean find(int x, byte[] key, boolean isFullWord) {
+        x = walk(x, key);
+        return x >= 0 && (!isFullWord || terminal.get(x));
+    }
+
+    /**
+      * @param x Node to start from.
+      * @param key Bytes to follow.
+      * @return Node reached, or -1 if the path leaves the trie.
+      */
+    private int walk(int x, byte[] key) {
+        for (int i = 0; i < key.length && x >= 0; i += 1) {
+            x = child(x, key[i]);
+        }
+        return x;
+    }
+
+    /**
+      * Checks whether a word continues from node x with a supplementary character whose
+      * high surrogate is high. Its code point, shifted right by 10, is fixed by high, so
+      * that fixes the first two UTF-8 bytes and the top two payload bits of the third.
+      * @param x Node reached so far.
+      * @param high High surrogate.
+      * @return Whether such a word exists.
+      */
+    private boolean completes(int x, char high) {
+        int top = 0x40 + (high - Character.MIN_HIGH_SURROGATE);
+        x = walk(x, new byte[] {(byte) (0xF0 | top >> 8), (byte) (0x80 | (top >> 2) & 0x3F)});
+        if (x < 0) {
+            return false;
+        }
+        int third = 0x80 | (top & 0x3) << 4;
+        for (int b = third; b < third + 16; b += 1) {
+            if (child(x, (byte) b) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+      * @param s String to search.
+      * @param from First char to look at.
+      * @return Index of the first surrogate at or after from that is not half of a
+      *         pair, or -1 if there is none.
+      */
+    private static int unpairedSurrogate(String s, int from) {
+        for (int i = from; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+                i += 1;
+            } else if (Character.isSurrogate(c)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+      * Follows the edge labelled b out of node x.
+      * @param x Node to follow from.
+      * @param b Label of the edge.
+      * @return Child of x, or -1 if there is none.
+      */
+    private int child(int x, byte b) {
+        int p = louds.select0(x + 1) + 1;
+        int degree = louds.runOfOnes(p);
+        if (degree == 0) {
+            return -1;
+        }
+        int first = louds.rank1(p);
+        // Children's labels are sorted, so binary search them as unsigned bytes.
+        int l = first - 1;
+        int h = first - 1 + degree - 1;
+        int key = b & 0xFF;
+        while (l <= h) {
+            int m = (l + h) >>> 1;
+            int label = labels[m] & 0xFF;
+            if (label < key) {
+                l = m + 1;
+            } else if (label > key) {
+                h = m - 1;
+            } else {
+                return m + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+      * Returns every word with the given prefix, in order of their UTF-8 bytes, which is
+      * code point order.
+      * @param prefix Prefix of the words.
+      * @return Words with the prefix.
+      */
+    public Iterable<String> wordsWithPrefix(String prefix) {
+        ArrayList<String> out = new ArrayList<String>();
+        int bad = unpairedSurrogate(prefix, 0);
+        if (bad >= 0) {
+            // As in find, only a trailing high surrogate can begin a word's pair.
+            if (bad == prefix.length() - 1 && Character.isHighSurrogate(prefix.charAt(bad))) {
+                for (String word : wordsWithPrefix(prefix.substring(0, bad))) {
+                    if (word.startsWith(prefix)) {
+                        out.add(word);
+                    }
+                }
+            }
+            return out;
+        }
+        byte[] path = prefix.getBytes(StandardCharsets.UTF_8);
+        int x = 0;
+        for (int i = 0; i < path.length; i += 1) {
+            x = child(x, path[i]);
+            if (x < 0) {
+                return out;
+            }
+        }
+
+        if (terminal.get(x)) {
+            out.add(prefix);
+        }
+
+        // Depth-first with an explicit stack of nodes and the path length above them.
+        int base = path.length;
+        path = Arrays.copyOf(path, Math.max(16, 2 * base));
+        int[] stack = new int[512];
+        int[] lengths = new int[512];
+        int top = pushChildren(x, base, stack, lengths, 0);
+        while (top > 0) {
+            top -= 1;
+            int node = stack[top];
+            int length = lengths[top];
+            if (length == path.length) {
+                path = Arrays.copyOf(path, 2 * length);
+            }
+            path[length] = labels[node - 1];
+            if (terminal.get(node)) {
+                out.add(new String(path, 0, length + 1, StandardCharsets.UTF_8));
+            }
+            if (top + 256 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length + 256);
+                lengths = Arrays.copyOf(lengths, stack.length);
+            }
+            top = pushChildren(node, length + 1, stack, lengths, top);
+        }
+        return out;
+    }
+
+    /**
+      * Pushes the children of a node in reverse, so the smallest label is expanded first.
+      * A node has at most 256 children.
+      * @param x Node whose children are pushed.
+      * @param length Length of the path to x.
+      * @param stack Stack of nodes.
+      * @param lengths Path lengths parallel to stack.
+      * @param top Size of the stack.
+      * @return New size of the stack.
+      */
+    private int pushChildren(int x, int length, int[] stack, int[] lengths, int top) {
+        int p = louds.select0(x + 1) + 1;
+        int degree = louds.runOfOnes(p);
+        int first = louds.rank1(p);
+        for (int j = degree - 1; j >= 0; j -= 1) {
+            stack[top] = first + j;
+            lengths[top] = length;
+            top += 1;
+        }
+        return top;
+    }
+
+    /** @return Number of distinct words. */
+    public int size() {
+        return size;
+    }
+
+    /** @return Number of nodes, including the root. */
+    public int nodeCount() {
+        return nodes;
+    }
+
+    /** @return Bits of shape, rank directory, end-of-word flags and labels per node. */
+    public double bitsPerNode() {
+        return 8.0 * bytes() / nodes;
+    }
+
+    /** @return Estimated heap used by the encoded arrays. */
+    public long bytes() {
+        return louds.bytes() + terminal.bytes() + TrieStats.arrayBytes(labels.length, 1);
+    }
+
+    /**
+      * Builds a SuccinctTrie and a Trie from a word list, one word per line, checks that
+      * they agree and compares their size and lookup latency.
+      * @param args Name of the word list.
+      */
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        ArrayList<String> words = new ArrayList<String>();
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        SuccinctTrie succinct = new SuccinctTrie(words);
+        Trie trie = new Trie();
+        for (String word : words) {
+            trie.insert(word);
+        }
+
+        // Half hits, half misses one character past a word; a third of them full words.
+        String[] queries = new String[1 << 20];
+        Random random = new Random(61);
+        for (int i = 0; i < queries.length; i += 1) {
+            String word = words.get(random.nextInt(words.size()));
+            queries[i] = random.nextBoolean() ? word : word + (char) ('a' + random.nextInt(26));
+        }
+        for (int i = 0; i < queries.length; i += 1) {
+            if (succinct.find(queries[i], i % 3 == 0) != trie.find(queries[i], i % 3 == 0)) {
+                throw new IllegalStateException("SuccinctTrie and Trie disagree on \""
+                                                + queries[i] + "\"");
+            }
+        }
+
+        int hits = 0;
+        for (int round = 0; round < 3; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries.length; i += 1) {
+                hits += trie.find(queries[i], i % 3 == 0) ? 1 : 0;
+            }
+            long trieTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < queries.length; i += 1) {
+                hits += succinct.find(queries[i], i % 3 == 0) ? 1 : 0;
+            }
+            long succinctTime = System.nanoTime() - start;
+            System.out.printf("find: Trie %.0f ns, SuccinctTrie %.0f ns%n",
+                              (double) trieTime / queries.length,
+                              (double) succinctTime / queries.length);
+        }
+
+        TrieStats trieStats = trie.stats();
+        System.out.printf("%d words, %d hits%n", succinct.size(), hits);
+        System.out.printf("SuccinctTrie %,d nodes %,d bytes (%.1f bits/node)%n",
+                          succinct.nodeCount(), succinct.bytes(), succinct.bitsPerNode());
+        System.out.printf("Trie         %,d nodes %,d bytes (%.1f bits/node)%n",
+                          trieStats.nodeCount(), trieStats.totalBytes(),
+                          8.0 * trieStats.totalBytes() / trieStats.nodeCount());
+    }
+
+    /**
+      * Growable array of bytes.
+      */
+    private static class ByteArray {
+        private byte[] bytes = new byte[64];
+        private int length;
+
+        /** @param b Byte to append. */
+        void add(byte b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * length);
+            }
+            bytes[length] = b;
+            length += 1;
+        }
+
+        /** @return The bytes added so far, trimmed. */
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /**
+      * Bit vector with rank and select. Bits are appended, then finish() trims the
+      * words and builds a directory holding the number of 1s before every block of
+      * 512 bits, 1/16 of a bit of overhead per bit.
+      */
+    private static class BitVector {
+        private static final int BLOCK_WORDS = 8;
+
+        private long[] words = new long[8];
+        private int length;
+        private int[] blockRanks;
+
+        /** @param bit Bit to append. */
+        void add(boolean bit) {
+            if (length == words.length * 64) {
+                words = Arrays.copyOf(words, 2 * words.length);
+            }
+            if (bit) {
+                words[length >>> 6] |= 1L << length;
+            }
+            length += 1;
+        }
+
+        /** @return This vector, trimmed and indexed. */
+        BitVector finish() {
+            words = Arrays.copyOf(words, (length + 63) >>> 6);
+            blockRanks = new int[(words.length + BLOCK_WORDS - 1) / BLOCK_WORDS + 1];
+            int ones = 0;
+            for (int i = 0; i < words.length; i += 1) {
+                if (i % BLOCK_WORDS == 0) {
+                    blockRanks[i / BLOCK_WORDS] = ones;
+                }
+                ones += Long.bitCount(words[i]);
+            }
+            blockRanks[blockRanks.length - 1] = ones;
+            return this;
+        }
+
+        /**
+          * @param p Position.
+          * @return Bit at position p.
+          */
+        boolean get(int p) {
+            return (words[p >>> 6] & (1L << p)) != 0;
+        }
+
+        /**
+          * @param p Position.
+          * @return Number of 1s before position p.
+          */
+        int rank1(int p) {
+            int w = p >>> 6;
+            int block = w / BLOCK_WORDS;
+            int ones = blockRanks[block];
+            for (int i = block * BLOCK_WORDS; i < w; i += 1) {
+                ones += Long.bitCount(words[i]);
+            }
+            if ((p & 63) != 0) {
+                ones += Long.bitCount(words[w] & ((1L << p) - 1));
+            }
+            return ones;
+        }
+
+        /**
+          * Binary searches the directory for the block, then scans its words.
+          * @param k Which 0 to find, counting from 1.
+          * @return Position of the kth 0.
+          */
+        int select0(int k) {
+            int l = 0;
+            int h = blockRanks.length - 2;
+            while (l < h) {
+                int m = (l + h + 1) >>> 1;
+                if (m * BLOCK_WORDS * 64 - blockRanks[m] < k) {
+                    l = m;
+                } else {
+                    h = m - 1;
+                }
+            }
+            int remaining = k - (l * BLOCK_WORDS * 64 - blockRanks[l]);
+            int w = l * BLOCK_WORDS;
+            while (true) {
+                int zeros = 64 - Long.bitCount(words[w]);
+                if (zeros >= remaining) {
+                    break;
+                }
+                remaining -= zeros;
+                w += 1;
+            }
+            long inverted = ~words[w];
+            for (int i = 1; i < remaining; i += 1) {
+                inverted &= inverted - 1;
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(inverted);
+        }
+
+        /**
+          * @param p Position to start from.
+          * @return Number of consecutive 1s starting at p.
+          */
+        int runOfOnes(int p) {
+            int run = 0;
+            while (p < length) {
+                long rest = ~words[p >>> 6] >>> p;
+                int ones = Long.numberOfTrailingZeros(rest);
+                int inWord = 64 - (p & 63);
+                if (ones < inWord) {
+                    return run + ones;
+                }
+                run += inWord;
+                p += inWord;
+            }
+            return run;
+        }
+
+        /** @return Estimated heap used by the words and the directory. */
+        long bytes() {
+            return TrieStats.arrayBytes(words.length, 8) + TrieStats.arrayBytes(blockRanks.length, 4);
+        }
+    }
+}
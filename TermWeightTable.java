@@ -0,0 +1,205 @@
+/**
+ * Open-addressing hash table from term to primitive double weight. Keys, their hashes
+ * and weights live in parallel arrays, so there are no per-entry objects and no boxing.
+ * Collisions are resolved by linear probing, and the stored hash is compared before
+ * String.equals so most mismatched probes never touch the key.
+ * Terms cannot be removed.
+ * @author William Zhuang
+ */
+public class TermWeightTable {
+    /** Table grows once it is more than this full. */
+    private static final double MAX_LOAD = 0.6;
+
+    private String[] keys;
+    private int[] hashes;
+    private double[] values;
+    private int size;
+    private int mask;
+
+    /** Constructs an empty table. */
+    public TermWeightTable() {
+        this(16);
+    }
+
+    /**
+      * Constructs a table that holds expected terms without resizing.
+      * @param expected Number of terms expected.
+      */
+    public TermWeightTable(int expected) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expected) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    /**
+      * @param capacity Power of two number of slots.
+      */
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+      * Spreads the high bits of a String hash into the low bits used for indexing.
+      * @param term Term to hash.
+      * @return Mixed hash.
+      */
+    private static int hash(String term) {
+        int h = term.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+      * Finds the slot holding term, or the empty slot where it would go.
+      * @param term Term to look for.
+      * @param h hash(term).
+      * @return Slot index.
+      */
+    private int slot(String term, int h) {
+        int i = h & mask;
+        while (keys[i] != null) {
+            if (hashes[i] == h && keys[i].equals(term)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** @return Number of terms in the table. */
+    public int size() {
+        return size;
+    }
+
+    /**
+      * @param term Term to look for, possibly null.
+      * @return true if the term is in the table.
+      */
+    public boolean contains(String term) {
+        return term != null && keys[slot(term, hash(term))] != null;
+    }
+
+    /**
+      * Looks up a weight with a single probe sequence.
+      * @param term Term to look for, possibly null.
+      * @param missing Value returned if the term is null or not in the table.
+      * @return Weight of the term, or missing.
+      */
+    public double get(String term, double missing) {
+        if (term == null) {
+            return missing;
+        }
+        int i = slot(term, hash(term));
+        if (keys[i] == null) {
+            return missing;
+        }
+        return values[i];
+    }
+
+    /**
+      * Adds a term if it is not already present.
+      * @param term Term to add.
+      * @param weight Weight of the term.
+      * @return false if the term was already present, in which case nothing changes.
+      */
+    public boolean add(String term, double weight) {
+        int h = hash(term);
+        int i = slot(term, h);
+        if (keys[i] != null) {
+            return false;
+        }
+        insertAt(i, term, h, weight);
+        return true;
+    }
+
+    /**
+      * Sets the weight of a term, adding it if needed.
+      * @param term Term to set.
+      * @param weight New weight.
+      */
+    public void put(String term, double weight) {
+        int h = hash(term);
+        int i = slot(term, h);
+        if (keys[i] != null) {
+            values[i] = weight;
+        } else {
+            insertAt(i, term, h, weight);
+        }
+    }
+
+    /**
+      * Fills an empty slot, growing the table afterwards if it got too full.
+      * @param i Empty slot.
+      * @param term Term to store.
+      * @param h hash(term).
+      * @param weight Weight to store.
+      */
+    private void insertAt(int i, String term, int h, double weight) {
+        keys[i] = term;
+        hashes[i] = h;
+        values[i] = weight;
+        size += 1;
+        if (size > keys.length * MAX_LOAD) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+      * Rehashes into a larger table using the stored hashes.
+      * @param capacity New power of two number of slots.
+      */
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        double[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j += 1) {
+            if (oldKeys[j] != null) {
+                int i = oldHashes[j] & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                hashes[i] = oldHashes[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+      * Divides every weight by the same factor.
+      * @param scale Factor to divide by.
+      */
+    public void divideAll(double scale) {
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] /= scale;
+        }
+    }
+
+    /**
+      * Estimates the heap used by the table's arrays, excluding the terms themselves.
+      * @return Estimated bytes.
+      */
+    public long bytes() {
+        return TrieStats.objectBytes(3 * TrieStats.REF + 8)
+               + TrieStats.arrayBytes(keys.length, TrieStats.REF)
+               + TrieStats.arrayBytes(hashes.length, 4);
+    }
+
+    /**
+      * Estimates the heap used by the weights array.
+      * @return Estimated bytes.
+      */
+    public long weightBytes() {
+        return TrieStats.arrayBytes(values.length, 8);
+    }
+
+    /** @return A human readable description of the table's occupancy. */
+    public String toString() {
+        return "TermWeightTable(" + size + " of " + keys.length + " slots)";
+    }
+}
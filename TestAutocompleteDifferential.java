@@ -0,0 +1,732 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.text.Normalizer;
+
+/**
+ * Randomized differential tests for the autocomplete engines. Every engine in ENGINES
+ * is built from generated dictionaries and its topMatches and weightOf answers are
+ * checked against a brute-force sort. Running main also reports throughput per engine.
+ * To cover a new engine, add an Engine for it to ENGINES.
+ * @author William Zhuang
+ */
+public class TestAutocompleteDifferential {
+    /** Number of random dictionaries checked per engine. */
+    private static final int ROUNDS = 40;
+    /** Number of queries run against each dictionary. */
+    private static final int QUERIES = 200;
+    /** Characters outside of ASCII, including a surrogate pair. */
+    private static final String EXOTIC = "\u00e9\u00fc\u00df\u00f1\u4e2d\u6587\ud83d\ude00";
+
+    /**
+      * A single autocomplete implementation under test.
+      */
+    public interface Engine {
+        /** @return Name used in reports. */
+        String name();
+
+        /**
+          * Builds the engine's index.
+          * @param terms Array of distinct terms.
+          * @param weights Array of non-negative weights.
+          */
+        void build(String[] terms, double[] weights);
+
+        /**
+          * @param prefix Prefix from which words are found.
+          * @param k Number of terms to be returned.
+          * @return Iterable of the k top matching terms in descending order.
+          */
+        Iterable<String> topMatches(String prefix, int k);
+
+        /**
+          * @param term String for which the weight is found.
+          * @return Weight of the term, or 0.0 if it does not exist.
+          */
+        double weightOf(String term);
+    }
+
+    /** Engine backed by the TST based Autocomplete. */
+    private static class TSTEngine implements Engine {
+        private Autocomplete auto;
+
+        public String name() {
+            return "Autocomplete";
+        }
+
+        public void build(String[] terms, double[] weights) {
+            auto = new Autocomplete(terms, weights);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            return auto.topMatches(prefix, k);
+        }
+
+        public double weightOf(String term) {
+            return auto.weightOf(term);
+        }
+    }
+
+    /** Engine backed by the HashMap trie based oldAutocomplete. */
+    private static class HashTrieEngine implements Engine {
+        private oldAutocomplete auto;
+
+        public String name() {
+            return "oldAutocomplete";
+        }
+
+        public void build(String[] terms, double[] weights) {
+            auto = new oldAutocomplete(terms, weights);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            return auto.topMatches(prefix, k);
+        }
+
+        public double weightOf(String term) {
+            return auto.weightOf(term);
+        }
+    }
+
+    /** 
+      * Engine built by merging three overlapping slices of the dictionary with max().
+      * Terms shared between slices carry their real weight in exactly one of them.
+      */
+    private static class MergedEngine implements Engine {
+        private Autocomplete auto;
+
+        public String name() {
+            return "Autocomplete.merge";
+        }
+
+        public void build(String[] terms, double[] weights) {
+            Autocomplete[] parts = new Autocomplete[3];
+            for (int p = 0; p < parts.length; p += 1) {
+                ArrayList<String> partTerms = new ArrayList<String>();
+                ArrayList<Double> partWeights = new ArrayList<Double>();
+                for (int i = 0; i < terms.length; i += 1) {
+                    if (i % 3 == p) {
+                        partTerms.add(terms[i]);
+                        partWeights.add(weights[i]);
+                    } else if (i % 5 == p) {
+                        partTerms.add(terms[i]);
+                        partWeights.add(weights[i] / 2);
+                    }
+                }
+                double[] w = new double[partWeights.size()];
+                for (int i = 0; i < w.length; i += 1) {
+                    w[i] = partWeights.get(i);
+                }
+                parts[p] = new Autocomplete(partTerms.toArray(new String[0]), w);
+            }
+            auto = Autocomplete.merge(Autocomplete.max(), parts);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            return auto.topMatches(prefix, k);
+        }
+
+        public double weightOf(String term) {
+            return auto.weightOf(term);
+        }
+    }
+
+    /**
+      * Engine with decaying weights on a manual clock. Terms start at weight 0 and get
+      * their weight through incrementWeight five half-lives later, half of them after a
+      * renormalize. Powers of two keep the decayed weights exact.
+      */
+    private static class DecayingEngine implements Engine {
+        private Autocomplete auto;
+        private long now;
+
+        public String name() {
+            return "Autocomplete (decaying)";
+        }
+
+        public void build(String[] terms, double[] weights) {
+            now = 0;
+            auto = new Autocomplete(terms, new double[terms.length], 10, () -> now);
+            now = 50;
+            for (int i = 0; i < terms.length; i += 1) {
+                if (i == terms.length / 2) {
+                    auto.renormalize();
+                }
+                auto.incrementWeight(terms[i], weights[i]);
+            }
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            return auto.topMatches(prefix, k);
+        }
+
+        public double weightOf(String term) {
+            return auto.weightOf(term);
+        }
+    }
+
+    /** Engine that answers topMatches by pulling k terms from the lazy completions. */
+    private static class CompletionsEngine implements Engine {
+        private Autocomplete auto;
+
+        public String name() {
+            return "Autocomplete.completions";
+        }
+
+        public void build(String[] terms, double[] weights) {
+            auto = new Autocomplete(terms, weights);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            ArrayList<String> answers = new ArrayList<String>();
+            Iterator<String> iter = auto.completions(prefix);
+            while (answers.size() < k && iter.hasNext()) {
+                answers.add(iter.next());
+            }
+            return answers;
+        }
+
+        public double weightOf(String term) {
+            return auto.weightOf(term);
+        }
+    }
+
+    /** Engine backed by the code point TST. */
+    private static class UnicodeEngine implements Engine {
+        private UnicodeAutocomplete auto;
+
+        public String name() {
+            return "UnicodeAutocomplete";
+        }
+
+        public void build(String[] terms, double[] weights) {
+            auto = new UnicodeAutocomplete(terms, weights);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            return auto.topMatches(prefix, k);
+        }
+
+        public double weightOf(String term) {
+            return auto.weightOf(term);
+        }
+    }
+
+    /** Engines checked by the harness. */
+    static final List<Engine> ENGINES = new ArrayList<Engine>(Arrays.<Engine>asList(
+        new TSTEngine(), new HashTrieEngine(), new MergedEngine(), new DecayingEngine(),
+        new CompletionsEngine(), new UnicodeEngine()));
+
+    /**
+      * A generated dictionary.
+      */
+    static class Dictionary {
+        String[] terms;
+        double[] weights;
+    }
+
+    /**
+      * Generates a dictionary mixing the adversarial shapes: heavy weight ties, terms that
+      * are prefixes of other terms, non-ASCII characters and single character terms.
+      * @param random Source of randomness.
+      * @param n Approximate number of terms.
+      * @return Dictionary of distinct terms.
+      */
+    static Dictionary randomDictionary(Random random, int n) {
+        LinkedHashSet<String> set = new LinkedHashSet<String>();
+        ArrayList<String> list = new ArrayList<String>();
+        int[] alphabet = ("abc" + (random.nextBoolean() ? EXOTIC : "de")).codePoints().toArray();
+        while (list.size() < n) {
+            int shape = random.nextInt(4);
+            String term;
+            if (shape == 0) {
+                term = randomWord(random, alphabet, 1);
+            } else if (shape == 1 && !list.isEmpty()) {
+                // Extend an existing term so that it becomes a prefix of the new one.
+                String base = list.get(random.nextInt(list.size()));
+                term = base + randomWord(random, alphabet, 1 + random.nextInt(2));
+            } else {
+                term = randomWord(random, alphabet, 1 + random.nextInt(3 + n / 1000));
+            }
+            if (set.add(term)) {
+                list.add(term);
+            }
+        }
+
+        Dictionary dict = new Dictionary();
+        dict.terms = list.toArray(new String[0]);
+        dict.weights = new double[dict.terms.length];
+        boolean ties = random.nextBoolean();
+        for (int i = 0; i < dict.weights.length; i += 1) {
+            if (ties) {
+                dict.weights[i] = random.nextInt(3);
+            } else {
+                dict.weights[i] = Math.floor(random.nextDouble() * 1e6) / 10;
+            }
+        }
+        return dict;
+    }
+
+    /**
+      * @param random Source of randomness.
+      * @param alphabet Code points to draw from.
+      * @param length Length of the word in code points.
+      * @return Random word.
+      */
+    private static String randomWord(Random random, int[] alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            sb.appendCodePoint(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+      * Picks a query prefix: usually a prefix of a real term, sometimes the empty string
+      * or a string with no matches.
+      * @param random Source of randomness.
+      * @param dict Dictionary being queried.
+      * @return Query prefix.
+      */
+    static String randomPrefix(Random random, Dictionary dict) {
+        int shape = random.nextInt(10);
+        if (shape == 0) {
+            return "";
+        } else if (shape == 1) {
+            return "zz" + random.nextInt(10);
+        }
+        String term = dict.terms[random.nextInt(dict.terms.length)];
+        return term.substring(0, 1 + random.nextInt(term.length()));
+    }
+
+    /**
+      * Like randomPrefix, but never splits a surrogate pair, for engines that match
+      * whole code points.
+      * @param random Source of randomness.
+      * @param dict Dictionary being queried.
+      * @return Query prefix.
+      */
+    static String randomCodePointPrefix(Random random, Dictionary dict) {
+        int shape = random.nextInt(10);
+        if (shape == 0) {
+            return "";
+        } else if (shape == 1) {
+            return "zz" + random.nextInt(10);
+        }
+        String term = dict.terms[random.nextInt(dict.terms.length)];
+        int cut = 1 + random.nextInt(term.codePointCount(0, term.length()));
+        return term.substring(0, term.offsetByCodePoints(0, cut));
+    }
+
+    /**
+      * Picks k, including 0 and values far beyond the number of terms.
+      * @param random Source of randomness.
+      * @param dict Dictionary being queried.
+      * @return Number of matches to ask for.
+      */
+    static int randomK(Random random, Dictionary dict) {
+        int shape = random.nextInt(6);
+        if (shape == 0) {
+            return 0;
+        } else if (shape == 1) {
+            return dict.terms.length + random.nextInt(10);
+        } else if (shape == 2) {
+            return Integer.MAX_VALUE;
+        }
+        return 1 + random.nextInt(8);
+    }
+
+    /**
+      * Computes the expected answer by sorting every matching term.
+      * @param dict Dictionary being queried.
+      * @param prefix Query prefix.
+      * @param k Number of matches wanted.
+      * @return Weights of the top k matches in descending order.
+      */
+    static double[] bruteForce(Dictionary dict, String prefix, int k) {
+        ArrayList<Double> matches = new ArrayList<Double>();
+        for (int i = 0; i < dict.terms.length; i += 1) {
+            if (dict.terms[i].startsWith(prefix)) {
+                matches.add(dict.weights[i]);
+            }
+        }
+        matches.sort(Comparator.reverseOrder());
+        double[] expected = new double[Math.min(k, matches.size())];
+        for (int i = 0; i < expected.length; i += 1) {
+            expected[i] = matches.get(i);
+        }
+        return expected;
+    }
+
+    /**
+      * Checks one topMatches answer. Ties may come back in any order, so the answer is
+      * compared by weight sequence, and every term must be a distinct dictionary term
+      * with the prefix.
+      * @param engine Engine under test.
+      * @param dict Dictionary being queried.
+      * @param prefix Query prefix.
+      * @param k Number of matches wanted.
+      * @return null if the answer is correct, otherwise a description of the mismatch.
+      */
+    static String check(Engine engine, Dictionary dict, String prefix, int k) {
+        double[] expected = bruteForce(dict, prefix, k);
+        String query = engine.name() + " topMatches(\"" + prefix + "\", " + k + ")";
+        ArrayList<String> actual = new ArrayList<String>();
+        try {
+            for (String term : engine.topMatches(prefix, k)) {
+                actual.add(term);
+            }
+        } catch (RuntimeException e) {
+            return query + " threw " + e;
+        }
+
+        if (actual.size() != expected.length) {
+            return query + " returned " + actual.size() + " terms, expected " + expected.length;
+        }
+        HashSet<String> seen = new HashSet<String>();
+        for (int i = 0; i < expected.length; i += 1) {
+            String term = actual.get(i);
+            if (term == null || !term.startsWith(prefix) || !seen.add(term)) {
+                return query + " returned bad term \"" + term + "\" at " + i;
+            }
+            double weight = weightIn(dict, term);
+            if (weight != expected[i]) {
+                return query + " entry " + i + " \"" + term + "\" has weight " + weight
+                       + ", expected " + expected[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+      * @param dict Dictionary to search.
+      * @param term Term to look up.
+      * @return Weight of term in dict, or NaN if it is not a term.
+      */
+    private static double weightIn(Dictionary dict, String term) {
+        for (int i = 0; i < dict.terms.length; i += 1) {
+            if (dict.terms[i].equals(term)) {
+                return dict.weights[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+      * Runs the full randomized comparison against one engine.
+      * @param engine Engine under test.
+      * @param seed Random seed, so failures can be replayed.
+      */
+    static void differential(Engine engine, long seed) {
+        Random random = new Random(seed);
+        for (int round = 0; round < ROUNDS; round += 1) {
+            Dictionary dict = randomDictionary(random, 1 + random.nextInt(60));
+            engine.build(dict.terms, dict.weights);
+            for (int i = 0; i < dict.terms.length; i += 1) {
+                assertEquals(engine.name() + " weightOf(\"" + dict.terms[i] + "\")",
+                             dict.weights[i], engine.weightOf(dict.terms[i]), 0);
+            }
+            assertEquals(engine.name() + " weightOf missing term",
+                         0.0, engine.weightOf("zz"), 0);
+            for (int q = 0; q < QUERIES; q += 1) {
+                // Half a surrogate pair is not a code point prefix of anything.
+                String prefix = engine instanceof UnicodeEngine 
+                                ? randomCodePointPrefix(random, dict) : randomPrefix(random, dict);
+                int k = randomK(random, dict);
+                String failure = check(engine, dict, prefix, k);
+                if (failure != null) {
+                    fail(failure + " (seed " + seed + ", round " + round + ")");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAutocomplete() {
+        differential(ENGINES.get(0), 61);
+        Autocomplete auto = new Autocomplete(new String[] {"spit"}, new double[] {2});
+        assertEquals(0, auto.weightOf(null), 0);
+    }
+
+    @Test
+    public void testOldAutocomplete() {
+        differential(ENGINES.get(1), 61);
+    }
+
+    @Test
+    public void testMerge() {
+        differential(ENGINES.get(2), 61);
+    }
+
+    @Test
+    public void testMergeCombine() {
+        Autocomplete a = new Autocomplete(new String[] {"spit", "spite", "sad"}, 
+                                          new double[] {2, 10, 5});
+        Autocomplete b = new Autocomplete(new String[] {"spite", "spa"}, 
+                                          new double[] {1, 20});
+        Autocomplete sum = Autocomplete.merge(Autocomplete.sum(), a, b);
+        assertEquals(11, sum.weightOf("spite"), 0);
+        assertEquals("spa", sum.topMatch("sp"));
+        Autocomplete weighted = Autocomplete.merge(Autocomplete.weighted(1, 10), a, b);
+        assertEquals(20, weighted.weightOf("spite"), 0);
+        // Terms in only one dictionary keep their weight.
+        assertEquals(20, weighted.weightOf("spa"), 0);
+        assertEquals(2, weighted.weightOf("spit"), 0);
+        // Merged dictionaries still accept inserts through further merges.
+        Autocomplete again = Autocomplete.merge(Autocomplete.max(), sum, weighted);
+        assertEquals(20, again.weightOf("spite"), 0);
+        assertEquals("spite", again.topMatch("spi"));
+        // Three at once combine left to right, and decayed weights are taken as of now.
+        long[] now = {0};
+        Autocomplete c = new Autocomplete(new String[] {"spite"}, new double[] {8}, 
+                                          10, () -> now[0]);
+        now[0] = 20;
+        Autocomplete three = Autocomplete.merge(Autocomplete.weighted(1, 10), a, b, c);
+        assertEquals(40, three.weightOf("spite"), 1e-9);
+        now[0] = 40;
+        assertEquals(40, three.weightOf("spite"), 1e-9);
+    }
+
+    @Test
+    public void testDecaying() {
+        differential(ENGINES.get(3), 61);
+    }
+
+    @Test
+    public void testDecayOrder() {
+        long[] now = {0};
+        Autocomplete auto = new Autocomplete(new String[] {"spit", "spite"}, 
+                                             new double[] {8, 4}, 100, () -> now[0]);
+        now[0] = 100;
+        assertEquals(4, auto.weightOf("spit"), 1e-9);
+        // A fresh hit outweighs an older, larger one.
+        auto.incrementWeight("spite", 3);
+        assertEquals(5, auto.weightOf("spite"), 1e-9);
+        assertEquals("spite", auto.topMatch("sp"));
+        auto.incrementWeight("spa", 1);
+        assertEquals(1, auto.weightOf("spa"), 1e-9);
+
+        // Far enough in the future the next hit renormalizes instead of overflowing.
+        now[0] = 100 * 200;
+        auto.incrementWeight("spa", 1);
+        assertEquals(1, auto.weightOf("spa"), 1e-9);
+        assertEquals("spa", auto.topMatch("s"));
+        assertTrue(auto.weightOf("spite") < 1e-50);
+    }
+
+    @Test
+    public void testBackgroundRenormalize() throws Exception {
+        long[] now = {0};
+        Autocomplete auto = new Autocomplete(new String[] {"spit", "spite"}, 
+                                             new double[] {8, 4}, 1, () -> now[0]);
+        // Only ever read, past the point where the scale itself would overflow a double.
+        for (int i = 0; i <= 1070; i += 10) {
+            now[0] = i;
+            assertEquals("spit", auto.topMatch("sp"));
+            assertEquals(Math.scalb(8.0, -i), auto.weightOf("spit"), 0);
+            assertEquals(Math.scalb(4.0, -i), auto.weightOf("spite"), 0);
+            // Wait for any renormalization queued by the reads above.
+            Autocomplete.RENORMALIZER.submit(() -> { }).get();
+        }
+    }
+
+    @Test
+    public void testCompletions() {
+        differential(ENGINES.get(4), 61);
+        Autocomplete auto = new Autocomplete(new String[] {"spit", "spite", "sad", "spa"}, 
+                                             new double[] {2, 10, 5, 1});
+        assertEquals("spite", auto.topMatch("s"));
+        assertEquals("", auto.topMatch("x"));
+        assertEquals(Arrays.asList("spite", "spit", "spa"), 
+                     Arrays.asList(auto.completionStream("sp").toArray()));
+        assertEquals(Arrays.asList("spite", "sad"), 
+                     Arrays.asList(auto.completionStream("").limit(2).toArray()));
+    }
+
+    @Test
+    public void testUnicode() {
+        differential(ENGINES.get(5), 61);
+        String composed = "caf\u00e9";
+        String decomposed = "cafe\u0301";
+        UnicodeAutocomplete nfc = new UnicodeAutocomplete(new String[] {decomposed, "cafeteria", "\ud83d\ude00x"}, 
+                                                    new double[] {3, 2, 1}, 
+                                                    Normalizer.Form.NFC);
+        assertEquals(3, nfc.weightOf(composed), 0);
+        assertEquals(decomposed, nfc.topMatch(composed));
+        assertEquals("cafeteria", nfc.topMatch("cafe"));
+        assertEquals("\ud83d\ude00x", nfc.topMatch("\ud83d\ude00"));
+    }
+
+    @Test
+    public void testFolding() {
+        Autocomplete auto = new Autocomplete(
+            new String[] {"Hugo, Minnesota", "hug", "Caf\u00e9", "CAFE", "cafe\u0301s", "Hugs"},
+            new double[] {5, 3, 4, 6, 1, 2}, true);
+        assertEquals("Hugo, Minnesota", auto.topMatch("hug"));
+        assertEquals(Arrays.asList("Hugo, Minnesota", "hug", "Hugs"),
+                     Arrays.asList(auto.completionStream("HU").toArray()));
+        assertEquals(Arrays.asList("CAFE", "Caf\u00e9", "cafe\u0301s"),
+                     Arrays.asList(auto.completionStream("caf\u00c9").toArray()));
+        assertEquals(4, auto.weightOf("Caf\u00e9"), 0);
+        assertEquals(0, auto.weightOf("cafe"), 0);
+
+        // Twins keep their own weights through increments.
+        auto.incrementWeight("Caf\u00e9", 3);
+        auto.incrementWeight("cafe", 0.5);
+        assertEquals(Arrays.asList("Caf\u00e9", "CAFE", "cafe\u0301s", "cafe"),
+                     Arrays.asList(auto.completionStream("cafe").toArray()));
+        assertEquals(0.5, auto.weightOf("cafe"), 0);
+
+        // Merging a folding dictionary gives an exact one.
+        Autocomplete merged = Autocomplete.merge(Autocomplete.sum(), auto);
+        assertEquals(Arrays.asList("Hugo, Minnesota", "Hugs"),
+                     Arrays.asList(merged.completionStream("Hu").toArray()));
+
+        Random random = new Random(61);
+        for (int round = 0; round < ROUNDS; round += 1) {
+            Dictionary dict = randomDictionary(random, 1 + random.nextInt(60));
+            for (int i = 0; i < dict.terms.length; i += 3) {
+                dict.terms[i] = dict.terms[i].toUpperCase(Locale.ROOT);
+            }
+            LinkedHashSet<String> distinct = new LinkedHashSet<String>(Arrays.asList(dict.terms));
+            if (distinct.size() < dict.terms.length) {
+                continue;
+            }
+            auto = new Autocomplete(dict.terms, dict.weights, true);
+            for (int q = 0; q < QUERIES; q += 1) {
+                String prefix = randomPrefix(random, dict);
+                int k = randomK(random, dict);
+                ArrayList<Double> matches = new ArrayList<Double>();
+                for (int i = 0; i < dict.terms.length; i += 1) {
+                    if (Autocomplete.fold(dict.terms[i]).startsWith(Autocomplete.fold(prefix))) {
+                        matches.add(dict.weights[i]);
+                    }
+                }
+                matches.sort(Comparator.reverseOrder());
+
+                int i = 0;
+                for (String term : auto.topMatches(prefix, k)) {
+                    assertTrue(term, Autocomplete.fold(term).startsWith(Autocomplete.fold(prefix)));
+                    assertEquals(matches.get(i), auto.weightOf(term), 0);
+                    i += 1;
+                }
+                assertEquals(Math.min(k, matches.size()), i);
+            }
+        }
+    }
+
+    @Test
+    public void testSpellCheck() {
+        Random random = new Random(61);
+        for (int round = 0; round < ROUNDS; round += 1) {
+            Dictionary dict = randomDictionary(random, 1 + random.nextInt(60));
+            Autocomplete auto = new Autocomplete(dict.terms, dict.weights);
+            for (int q = 0; q < QUERIES / 4; q += 1) {
+                String word = randomPrefix(random, dict) + (random.nextBoolean() ? "a" : "");
+                int dist = random.nextInt(3);
+                int k = randomK(random, dict);
+
+                ArrayList<Double> matches = new ArrayList<Double>();
+                boolean exact = false;
+                for (int i = 0; i < dict.terms.length; i += 1) {
+                    exact |= dict.terms[i].equals(word);
+                    if (editDistance(dict.terms[i], word) <= dist) {
+                        matches.add(dict.weights[i]);
+                    }
+                }
+                matches.sort(Comparator.reverseOrder());
+
+                int i = 0;
+                for (String term : auto.spellCheck(word, dist, k)) {
+                    assertFalse("spellCheck of a dictionary word", exact);
+                    assertTrue(term, editDistance(term, word) <= dist);
+                    assertEquals(matches.get(i), auto.weightOf(term), 0);
+                    i += 1;
+                }
+                assertEquals(exact ? 0 : Math.min(k, matches.size()), i);
+            }
+        }
+    }
+
+    /**
+      * @param a First string.
+      * @param b Second string.
+      * @return Levenshtein distance between a and b.
+      */
+    private static int editDistance(String a, String b) {
+        int[][] table = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i += 1) {
+            for (int j = 0; j <= b.length(); j += 1) {
+                if (i == 0 || j == 0) {
+                    table[i][j] = i + j;
+                } else {
+                    int substitute = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    table[i][j] = Math.min(table[i - 1][j - 1] + substitute,
+                                           Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+                }
+            }
+        }
+        return table[a.length()][b.length()];
+    }
+
+    /**
+      * Measures topMatches calls per second for every engine on the same dictionary
+      * and query stream.
+      * @param n Number of terms.
+      * @param k Number of matches per call.
+      * @param calls Number of calls to time.
+      */
+    static void throughput(int n, int k, int calls) {
+        Random random = new Random(n);
+        Dictionary dict = randomDictionary(random, n);
+        String[] prefixes = new String[calls];
+        for (int i = 0; i < calls; i += 1) {
+            prefixes[i] = randomPrefix(random, dict);
+        }
+
+        System.out.println(String.format("Throughput, %d terms, k = %d:", n, k));
+        double score = 0;
+        for (Engine engine : ENGINES) {
+            long start = System.nanoTime();
+            engine.build(dict.terms, dict.weights);
+            long built = System.nanoTime();
+            for (String prefix : prefixes) {
+                for (String term : engine.topMatches(prefix, k)) {
+                    score += engine.weightOf(term);
+                }
+            }
+            long done = System.nanoTime();
+            System.out.println(String.format("  %-24s build %9.2f ms  %,12.0f calls/s",
+                               engine.name(), (built - start) / 1e6,
+                               calls / ((done - built) / 1e9)));
+        }
+        // Print the score so the calls cannot be optimized away.
+        System.out.println("  (score " + score + ")");
+    }
+
+    /**
+      * Runs the differential check against every engine, then the throughput report.
+      * @param args Optional random seed.
+      */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        for (Engine engine : ENGINES) {
+            try {
+                differential(engine, seed);
+                System.out.println("PASS " + engine.name());
+            } catch (AssertionError e) {
+                System.out.println("FAIL " + e.getMessage());
+            }
+        }
+        throughput(2000, 5, 20000);
+        throughput(20000, 10, 20000);
+    }
+}
@@ -1,20 +1,55 @@
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 /**
  * Prefix-Trie. Supports linear time find() and insert(). 
  * Should support determining whether a word is a full word in the 
  * Trie or a prefix.
+ * Children are stored per node in whichever form suits it: leaves share an empty
+ * sentinel, nodes with few children keep sorted parallel char[] and Node[] arrays,
+ * and nodes with many children switch to a Node[] indexed directly by a dense remap
+ * of the characters seen so far, so no lookup boxes or hashes a Character.
  * @author William Zhuang
  * Basic Trie and insert implementation adapted from Josh Hug's lecture on Tries
  * https://docs.google.com/presentation/d/1nrfO-8Skqj8aU69op1vEpNWcSJwr8wsBiDOB5gVhBTE/
  * pub?start=false&loop=false&delayms=3000#slide=id.g46b429e30_0110
  */
 public class Trie {
+    /** Nodes with more children than this are made dense, if the alphabet allows. */
+    private static final int SPARSE_MAX = 8;
+    /** Dense nodes are only used while the alphabet is at most this large. */
+    private static final int DENSE_MAX_ALPHABET = 256;
+    /** Ranges of at most this many lines are bulk-loaded on a single thread. */
+    private static final int LOAD_CUTOFF = 1024;
+    /** Shared by every node without children. */
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
 
     private Node root; 
+    /** Dense index plus one of every character inserted so far, indexed by character. */
+    private char[] ranks;
+    private int alphabetSize;
+    /** Optional filters over the words and over their prefixes up to filterPrefix. */
+    private BloomFilter wordFilter;
+    private BloomFilter prefixFilter;
+    private int filterPrefix;
+    private double filterFpr;
 
     /** Constructs an empty Trie. */
     public Trie() {
         root = new Node();
+        ranks = new char[128];
     }
 
     /** 
@@ -26,11 +61,20 @@ public class Trie {
       */ 
 
     public boolean find(String s, boolean isFullWord) {
+        if (wordFilter != null) {
+            if (isFullWord && !wordFilter.mightContain(s)) {
+                return false;
+            }
+            int n = Math.min(s.length(), filterPrefix);
+            if (!isFullWord && n > 0 && !prefixFilter.mightContain(s, n)) {
+                return false;
+            }
+        }
 
         Node pointer = root;
         for (int i = 0; i < s.length(); i += 1) {
             char c = s.charAt(i);
-            pointer = pointer.links.get(c); 
+            pointer = child(pointer, c); 
             if (pointer == null) {
                 return false;
             }
@@ -48,6 +92,51 @@ public class Trie {
 
     }
 
+    /**
+      * Looks up a batch of strings. The nodes along the last query's path are kept, so
+      * each query resumes from the end of its longest common prefix with the one
+      * before it instead of from the root; with sorted queries, every shared prefix is
+      * walked once. Any order gives correct answers, only more slowly.
+      * Filters are not consulted, since most of each walk is already shared.
+      * @param sorted Strings to look up, ideally in sorted order.
+      * @param isFullWord If true, a string only matches if it is a word in the Trie.
+      * @return Set with bit i set if and only if find(sorted[i], isFullWord).
+      */
+    public BitSet findAll(String[] sorted, boolean isFullWord) {
+        BitSet found = new BitSet(sorted.length);
+        Node[] path = new Node[16];
+        path[0] = root;
+        // Nodes path[0..reached] are valid for the first reached characters of previous.
+        String previous = "";
+        int reached = 0;
+        for (int q = 0; q < sorted.length; q += 1) {
+            String s = sorted[q];
+            int limit = Math.min(Math.min(s.length(), previous.length()), reached);
+            int d = 0;
+            while (d < limit && s.charAt(d) == previous.charAt(d)) {
+                d += 1;
+            }
+            if (s.length() >= path.length) {
+                path = Arrays.copyOf(path, Math.max(2 * path.length, s.length() + 1));
+            }
+            Node pointer = path[d];
+            while (d < s.length()) {
+                pointer = child(pointer, s.charAt(d));
+                if (pointer == null) {
+                    break;
+                }
+                d += 1;
+                path[d] = pointer;
+            }
+            if (pointer != null && (!isFullWord || pointer.exists)) {
+                found.set(q);
+            }
+            previous = s;
+            reached = d;
+        }
+        return found;
+    }
+
     /** 
       * Inserts a string into the tree.
       * @param s String to be inserted.
@@ -58,11 +147,358 @@ public class Trie {
             throw new IllegalArgumentException("Null or empty strings cannot be added to a Trie.");
         }
         
+        Node existing = node(s);
+        if (existing != null && existing.exists) {
+            return;
+        }
         insert(root, s, 0);
+        if (wordFilter != null) {
+            wordFilter.add(s);
+            for (int n = 1; n <= Math.min(s.length(), filterPrefix); n += 1) {
+                prefixFilter.add(s, n);
+            }
+        }
+    }
+
+    /**
+      * Puts Bloom filters in front of find, one over the full words and one over every
+      * prefix of at most prefixLength characters, so most misses are rejected without
+      * walking the trie. The filters are sized for the current contents and kept up to
+      * date by later inserts; their false-positive rate rises if the Trie grows well
+      * past its size here, so call this again after large loads.
+      * @param fpr Target false-positive rate of each filter, in (0, 1).
+      * @param prefixLength Longest prefix to filter, or 0 to filter full words only.
+      */
+    public void enableFilters(double fpr, int prefixLength) {
+        if (prefixLength < 0) {
+            throw new IllegalArgumentException("Negative prefix length");
+        }
+        TrieStats stats = stats();
+        long prefixes = 0;
+        for (int d = 1; d <= prefixLength; d += 1) {
+            prefixes += nodesAt(root, d);
+        }
+        BloomFilter words = new BloomFilter(stats.terminalCount(), fpr);
+        BloomFilter prefix = new BloomFilter(prefixes, fpr);
+
+        fillFilters(root, new StringBuilder(), letters(), words, prefix, prefixLength);
+        wordFilter = words;
+        prefixFilter = prefix;
+        filterPrefix = prefixLength;
+        filterFpr = fpr;
+    }
+
+    /** @return Character of each dense rank. */
+    private char[] letters() {
+        char[] letters = new char[alphabetSize];
+        for (int c = 0; c < ranks.length; c += 1) {
+            if (ranks[c] != 0) {
+                letters[ranks[c] - 1] = (char) c;
+            }
+        }
+        return letters;
+    }
+
+    /**
+      * Finds the words matching a glob pattern such as "h?ll*" or "[aeiou]..s"; see
+      * GlobPattern for the syntax. The pattern's automaton is walked together with
+      * the trie, so a subtree is skipped as soon as no state survives its prefix, and
+      * where only literals can come next their children are looked up directly. Words
+      * are found lazily, in sorted order, by an iterator that must not be used across
+      * inserts.
+      * @param pattern Pattern to match whole words against.
+      * @return Iterable over the matching words.
+      */
+    public Iterable<String> match(String pattern) {
+        GlobPattern glob = new GlobPattern(pattern);
+        return () -> new MatchIterator(glob, root, "");
+    }
+
+    /**
+      * Lists every word in sorted order, lazily; see wordsWithPrefix.
+      * @return Iterable over the words.
+      */
+    public Iterable<String> words() {
+        return wordsWithPrefix("");
+    }
+
+    /**
+      * Lists the words starting with a prefix in sorted order. The subtree is walked
+      * lazily with an explicit stack and a single path buffer, so the only allocation
+      * per word is the String returned. The iterator must not be used across inserts.
+      * @param prefix Prefix of the words to list.
+      * @return Iterable over the words.
+      */
+    public Iterable<String> wordsWithPrefix(String prefix) {
+        return () -> new MatchIterator(null, node(prefix), prefix);
+    }
+
+    /**
+      * Counts the words starting with a prefix, in O(prefix length).
+      * @param prefix Prefix to count; "" counts every word.
+      * @return Number of words in the Trie that start with prefix.
+      */
+    public int countWithPrefix(String prefix) {
+        Node x = node(prefix);
+        return x == null ? 0 : x.count;
+    }
+
+    /** @return Number of distinct words in the Trie. */
+    public int size() {
+        return root.count;
+    }
+
+    /**
+      * Finds the longest word that text continues with from offset, as a greedy
+      * tokenizer would. Stops at the first character with no link.
+      * @param text Text to read.
+      * @param offset Index of the first character to read.
+      * @return Length of the longest word at offset, or 0 if no word starts there.
+      */
+    public int longestPrefixOf(CharSequence text, int offset) {
+        if (offset < 0 || offset > text.length()) {
+            throw new IllegalArgumentException("Offset " + offset + " is outside the text.");
+        }
+        int longest = 0;
+        Node pointer = root;
+        for (int i = offset; i < text.length(); i += 1) {
+            pointer = child(pointer, text.charAt(i));
+            if (pointer == null) {
+                break;
+            }
+            if (pointer.exists) {
+                longest = i + 1 - offset;
+            }
+        }
+        return longest;
+    }
+
+    /**
+      * @param s Path to follow from the root.
+      * @return Node s leads to, or null if s is not a prefix in the Trie.
+      */
+    private Node node(String s) {
+        Node pointer = root;
+        for (int i = 0; i < s.length() && pointer != null; i += 1) {
+            pointer = child(pointer, s.charAt(i));
+        }
+        return pointer;
+    }
+
+    /**
+      * Depth-first walk of the nodes whose prefix leaves the automaton some state,
+      * or of every node below the start when there is no pattern.
+      * Each stack entry is a node, the states after its prefix, its depth and the
+      * letter leading to it; children are pushed in reverse so they pop in order.
+      */
+    private class MatchIterator implements Iterator<String> {
+        private final GlobPattern glob;
+        /** Ranks in ascending order of their characters, for walking dense nodes. */
+        private final int[] order;
+        private final char[] letters;
+        private Node[] nodes = new Node[64];
+        private long[] states = new long[64];
+        private int[] depths = new int[64];
+        private char[] edges = new char[64];
+        private int top;
+        private char[] path;
+        /** Depth of the start node, whose letters are already in path. */
+        private int base;
+        private String next;
+
+        /**
+          * @param glob0 Compiled pattern, or null to list every word below start.
+          * @param start Node to walk from, or null for none.
+          * @param prefix Letters leading to start; the pattern is matched after them.
+          */
+        MatchIterator(GlobPattern glob0, Node start, String prefix) {
+            glob = glob0;
+            letters = letters();
+            order = new int[alphabetSize];
+            int n = 0;
+            for (int c = 0; c < ranks.length; c += 1) {
+                if (ranks[c] != 0) {
+                    order[n] = ranks[c] - 1;
+                    n += 1;
+                }
+            }
+            path = Arrays.copyOf(prefix.toCharArray(), Math.max(16, 2 * prefix.length()));
+            if (start != null) {
+                push(start, glob == null ? 0 : glob.start(), prefix.length(), (char) 0);
+            }
+            base = prefix.length();
+        }
+
+        /**
+          * @param x Node to push.
+          * @param state States after the path to x.
+          * @param depth Depth of x.
+          * @param edge Letter leading to x.
+          */
+        private void push(Node x, long state, int depth, char edge) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                states = Arrays.copyOf(states, 2 * top);
+                depths = Arrays.copyOf(depths, 2 * top);
+                edges = Arrays.copyOf(edges, 2 * top);
+            }
+            nodes[top] = x;
+            states[top] = state;
+            depths[top] = depth;
+            edges[top] = edge;
+            top += 1;
+        }
+
+        /**
+          * Pushes the children of x that leave some state alive, largest letter first.
+          * @param x Node being expanded.
+          * @param state States after the path to x.
+          * @param depth Depth of x.
+          */
+        private void expand(Node x, long state, int depth) {
+            if (glob == null) {
+                if (x.keys != null) {
+                    for (int i = x.keys.length - 1; i >= 0; i -= 1) {
+                        push(x.children[i], 0, depth + 1, x.keys[i]);
+                    }
+                    return;
+                }
+                for (int i = order.length - 1; i >= 0; i -= 1) {
+                    int r = order[i];
+                    if (r < x.children.length && x.children[r] != null) {
+                        push(x.children[r], 0, depth + 1, letters[r]);
+                    }
+                }
+                return;
+            }
+            if (glob.onlyLiterals(state)) {
+                char[] wanted = glob.literals(state);
+                for (int i = wanted.length - 1; i >= 0; i -= 1) {
+                    Node child = child(x, wanted[i]);
+                    if (child != null) {
+                        push(child, glob.step(state, wanted[i]), depth + 1, wanted[i]);
+                    }
+                }
+                return;
+            }
+            if (x.keys == null) {
+                for (int i = order.length - 1; i >= 0; i -= 1) {
+                    int r = order[i];
+                    if (r < x.children.length && x.children[r] != null) {
+                        long next = glob.step(state, letters[r]);
+                        if (next != 0) {
+                            push(x.children[r], next, depth + 1, letters[r]);
+                        }
+                    }
+                }
+                return;
+            }
+            for (int i = x.keys.length - 1; i >= 0; i -= 1) {
+                long next = glob.step(state, x.keys[i]);
+                if (next != 0) {
+                    push(x.children[i], next, depth + 1, x.keys[i]);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            while (next == null && top > 0) {
+                top -= 1;
+                Node x = nodes[top];
+                long state = states[top];
+                int depth = depths[top];
+                if (depth > base) {
+                    if (depth > path.length) {
+                        path = Arrays.copyOf(path, 2 * depth);
+                    }
+                    path[depth - 1] = edges[top];
+                }
+                expand(x, state, depth);
+                if (x.exists && (glob == null || glob.accepts(state))) {
+                    next = new String(path, 0, depth);
+                }
+            }
+            return next != null;
+        }
+
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String word = next;
+            next = null;
+            return word;
+        }
+    }
+
+    /** Removes the filters added by enableFilters. */
+    public void disableFilters() {
+        wordFilter = null;
+        prefixFilter = null;
+    }
+
+    /**
+      * @param x Current node.
+      * @param d Depth below x.
+      * @return Number of nodes d levels below x.
+      */
+    private long nodesAt(Node x, int d) {
+        if (d == 0) {
+            return 1;
+        }
+        long count = 0;
+        for (Node child : x.children) {
+            if (child != null) {
+                count += nodesAt(child, d - 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+      * Adds every word and short prefix below x to the filters.
+      * @param x Current node.
+      * @param path Letters leading to x.
+      * @param letters Character of each dense rank.
+      * @param words Filter over full words.
+      * @param prefix Filter over prefixes.
+      * @param prefixLength Longest prefix to add.
+      */
+    private void fillFilters(Node x, StringBuilder path, char[] letters, BloomFilter words,
+                             BloomFilter prefix, int prefixLength) {
+        String s = path.toString();
+        if (x.exists) {
+            words.add(s);
+        }
+        if (s.length() > 0 && s.length() <= prefixLength) {
+            prefix.add(s);
+        }
+        for (int i = 0; i < x.children.length; i += 1) {
+            if (x.children[i] != null) {
+                path.append(x.keys == null ? letters[i] : x.keys[i]);
+                fillFilters(x.children[i], path, letters, words, prefix, prefixLength);
+                path.setLength(path.length() - 1);
+            }
+        }
+    }
+
+    /** @return Filter over full words, or null if filters are disabled. */
+    BloomFilter wordFilter() {
+        return wordFilter;
+    }
+
+    /** @return Description of the filters and their estimated false-positive rates. */
+    public String filterReport() {
+        if (wordFilter == null) {
+            return "filters disabled";
+        }
+        return "words:            " + wordFilter + "\n"
+               + "prefixes (<= " + filterPrefix + "):  " + prefixFilter;
     }
 
     /**
       * Recursively inserts letters into the tree until the String s is fully inserted.
+      * The key must not already be a word, since every node on its path counts it.
       * @param x Node that is currently being pointed at. 
       * @param key String that is to be inserted.
       * @param d Represents the dth letter of the string being added.
@@ -74,6 +510,8 @@ public class Trie {
         if (x == null) {
             x = new Node();
         }
+        // The caller checked that key is new, so it adds a word below every node.
+        x.count += 1;
 
         // Completed going through the word. 
         if (d == key.length()) {
@@ -83,24 +521,488 @@ public class Trie {
 
         // Gets the letter we are looking at and assigns the node accordingly.
         char c = key.charAt(d);
-        x.links.put(c, insert(x.links.get(c), key, d + 1));
+        Node child = child(x, c);
+        Node next = insert(child, key, d + 1);
+        if (child == null) {
+            addChild(x, c, next);
+        }
         return x;
     }
 
+    /**
+      * Inserts every line of a UTF-8 file on the common fork-join pool.
+      * @param file File with one word per line.
+      * @throws IOException If the file cannot be read.
+      */
+    public void insertAll(Path file) throws IOException {
+        insertAll(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+      * Inserts every line of a UTF-8 file, building independent subtrees in parallel.
+      * The file is memory-mapped and scanned once to find the lines and register
+      * their characters, so the rank table is read-only afterwards. ASCII lines are
+      * then partitioned by their first character, and recursively by the next one for
+      * large partitions; each partition is built by its own task and grafted under its
+      * parent once the task completes. ASCII lines never become Strings. The few lines
+      * with other characters are decoded and inserted one by one at the end. Empty
+      * lines are skipped. Must not run concurrently with other calls on this Trie.
+      * @param file File with one word per line, at most 2 GB.
+      * @param pool Pool to build the subtrees on.
+      * @throws IOException If the file cannot be read.
+      */
+    public void insertAll(Path file, ForkJoinPool pool) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Files over 2 GB cannot be bulk-loaded.");
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // Start and end of every ASCII line, in pairs.
+        int[] lines = new int[1024];
+        int count = 0;
+        ArrayList<String> decoded = new ArrayList<String>();
+        int n = buf.limit();
+        int start = 0;
+        while (start < n) {
+            int end = start;
+            boolean ascii = true;
+            byte b;
+            while (end < n && (b = buf.get(end)) != '\n') {
+                if (b < 0) {
+                    ascii = false;
+                } else {
+                    rankOrAdd((char) b);
+                }
+                end += 1;
+            }
+            int next = end + 1;
+            if (end > start && buf.get(end - 1) == '\r') {
+                end -= 1;
+            }
+            if (end > start && ascii) {
+                if (2 * count + 2 > lines.length) {
+                    lines = Arrays.copyOf(lines, 2 * lines.length);
+                }
+                lines[2 * count] = start;
+                lines[2 * count + 1] = end;
+                count += 1;
+            } else if (end > start) {
+                byte[] bytes = new byte[end - start];
+                buf.get(start, bytes);
+                String word = new String(bytes, StandardCharsets.UTF_8);
+                for (int i = 0; i < word.length(); i += 1) {
+                    rankOrAdd(word.charAt(i));
+                }
+                decoded.add(word);
+            }
+            start = next;
+        }
+
+        pool.invoke(new LoadTask(root, 0, buf, lines, 0, count));
+        for (String word : decoded) {
+            insert(word);
+        }
+        if (wordFilter != null) {
+            // The bulk path skips insert, so resize and refill the filters instead.
+            enableFilters(filterFpr, filterPrefix);
+        }
+    }
+
+    /**
+      * Builds the subtree for a range of ASCII lines that share their first depth
+      * characters. Owns its node: nothing else touches it until the task completes.
+      */
+    private class LoadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Node x;
+        private final int depth;
+        private final MappedByteBuffer buf;
+        private final int[] lines;
+        private final int lo;
+        private final int hi;
+
+        /**
+          * @param x0 Node the lines' first depth characters lead to.
+          * @param depth0 Number of characters already consumed.
+          * @param buf0 Mapped file.
+          * @param lines0 Start and end of each line, in pairs.
+          * @param lo0 First line of the range.
+          * @param hi0 One past the last line of the range.
+          */
+        LoadTask(Node x0, int depth0, MappedByteBuffer buf0, int[] lines0, int lo0, int hi0) {
+            x = x0;
+            depth = depth0;
+            buf = buf0;
+            lines = lines0;
+            lo = lo0;
+            hi = hi0;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= LOAD_CUTOFF) {
+                for (int i = lo; i < hi; i += 1) {
+                    insert(x, buf, lines[2 * i] + depth, lines[2 * i + 1]);
+                }
+                recount(x);
+                return;
+            }
+
+            // Counting sort the range by the character at depth; bucket 0 is for lines
+            // that end here, so there are 128 + 1 buckets.
+            int[] counts = new int[128 + 3];
+            for (int i = lo; i < hi; i += 1) {
+                counts[bucket(i) + 2] += 1;
+            }
+            for (int b = 0; b < 128 + 2; b += 1) {
+                counts[b + 1] += counts[b];
+            }
+            int[] sorted = new int[2 * (hi - lo)];
+            for (int i = lo; i < hi; i += 1) {
+                int j = counts[bucket(i) + 1];
+                counts[bucket(i) + 1] += 1;
+                sorted[2 * j] = lines[2 * i];
+                sorted[2 * j + 1] = lines[2 * i + 1];
+            }
+            System.arraycopy(sorted, 0, lines, 2 * lo, sorted.length);
+
+            // Bucket k now holds lines[lo + counts[k], lo + counts[k + 1]).
+            if (counts[1] > 0) {
+                x.exists = true;
+            }
+            ArrayList<LoadTask> tasks = new ArrayList<LoadTask>();
+            // Children created here are grafted under x once their subtrees are built.
+            ArrayList<Character> letters = new ArrayList<Character>();
+            ArrayList<Node> grafts = new ArrayList<Node>();
+            for (int b = 1; b < 128 + 2; b += 1) {
+                int from = lo + counts[b];
+                int to = lo + counts[b + 1];
+                if (from == to) {
+                    continue;
+                }
+                char c = (char) (b - 1);
+                Node child = child(x, c);
+                if (child == null) {
+                    child = new Node();
+                    letters.add(c);
+                    grafts.add(child);
+                }
+                tasks.add(new LoadTask(child, depth + 1, buf, lines, from, to));
+            }
+            invokeAll(tasks);
+            for (int i = 0; i < grafts.size(); i += 1) {
+                addChild(x, letters.get(i), grafts.get(i));
+            }
+            // Every child's count is final once its task is done.
+            int total = x.exists ? 1 : 0;
+            for (Node child : x.children) {
+                if (child != null) {
+                    total += child.count;
+                }
+            }
+            x.count = total;
+        }
+
+        /**
+          * @param i Line index.
+          * @return 0 if line i ends at depth, otherwise 1 plus its character at depth.
+          */
+        private int bucket(int i) {
+            int p = lines[2 * i] + depth;
+            if (p >= lines[2 * i + 1]) {
+                return 0;
+            }
+            return buf.get(p) + 1;
+        }
+    }
+
+    /**
+      * Recomputes the word counts of every node below x, after bulk inserts that
+      * did not maintain them.
+      * @param x Root of the subtree.
+      * @return Number of words below x.
+      */
+    private int recount(Node x) {
+        int total = x.exists ? 1 : 0;
+        for (Node child : x.children) {
+            if (child != null) {
+                total += recount(child);
+            }
+        }
+        x.count = total;
+        return total;
+    }
+
+    /**
+      * Inserts the ASCII bytes buf[from, to) below x. Leaves counts to recount.
+      * @param x Node to start from.
+      * @param buf Mapped file.
+      * @param from First byte.
+      * @param to One past the last byte.
+      */
+    private void insert(Node x, MappedByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            char c = (char) buf.get(i);
+            Node next = child(x, c);
+            if (next == null) {
+                next = new Node();
+                addChild(x, c, next);
+            }
+            x = next;
+        }
+        x.exists = true;
+    }
+
+    /**
+      * @param c Character to look up.
+      * @return Dense index of c, or -1 if it has never been inserted.
+      */
+    private int rank(char c) {
+        if (c >= ranks.length) {
+            return -1;
+        }
+        return ranks[c] - 1;
+    }
+
+    /**
+      * Returns the dense index of a character, assigning the next one if it is new.
+      * @param c Character to look up.
+      * @return Dense index of c.
+      */
+    private int rankOrAdd(char c) {
+        if (c >= ranks.length) {
+            ranks = Arrays.copyOf(ranks, Math.max(c + 1, Math.min(2 * ranks.length, 0x10000)));
+        }
+        if (ranks[c] == 0) {
+            alphabetSize += 1;
+            ranks[c] = (char) alphabetSize;
+        }
+        return ranks[c] - 1;
+    }
+
+    /**
+      * Follows the link for a character.
+      * @param x Node to follow from.
+      * @param c Letter of the link.
+      * @return Child of x for c, or null if there is none.
+      */
+    private Node child(Node x, char c) {
+        if (x.keys == null) {
+            int r = rank(c);
+            if (r < 0 || r >= x.children.length) {
+                return null;
+            }
+            return x.children[r];
+        }
+        char[] keys = x.keys;
+        for (int i = 0; i < keys.length; i += 1) {
+            if (keys[i] == c) {
+                return x.children[i];
+            }
+            if (keys[i] > c) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+      * Links a new child. A sparse node that outgrows SPARSE_MAX becomes dense,
+      * unless the alphabet is too large for a direct-indexed array to pay off.
+      * @param x Node to link from, without a child for c.
+      * @param c Letter of the link.
+      * @param child Node to link to.
+      */
+    private void addChild(Node x, char c, Node child) {
+        int r = rankOrAdd(c);
+        if (x.keys == null) {
+            if (r >= x.children.length) {
+                x.children = Arrays.copyOf(x.children, alphabetSize);
+            }
+            x.children[r] = child;
+            return;
+        }
+
+        int n = x.keys.length;
+        if (n >= SPARSE_MAX && alphabetSize <= DENSE_MAX_ALPHABET) {
+            Node[] dense = new Node[alphabetSize];
+            for (int i = 0; i < n; i += 1) {
+                dense[rank(x.keys[i])] = x.children[i];
+            }
+            dense[r] = child;
+            x.keys = null;
+            x.children = dense;
+            return;
+        }
+
+        int i = n;
+        while (i > 0 && x.keys[i - 1] > c) {
+            i -= 1;
+        }
+        char[] keys = new char[n + 1];
+        Node[] children = new Node[n + 1];
+        System.arraycopy(x.keys, 0, keys, 0, i);
+        System.arraycopy(x.children, 0, children, 0, i);
+        keys[i] = c;
+        children[i] = child;
+        System.arraycopy(x.keys, i, keys, i + 1, n - i);
+        System.arraycopy(x.children, i, children, i + 1, n - i);
+        x.keys = keys;
+        x.children = children;
+    }
+
+    /**
+      * Reports node counts, depth, branching and estimated heap usage.
+      * @return TrieStats describing this Trie.
+      */
+    public TrieStats stats() {
+        TrieStats stats = new TrieStats("Trie");
+        stats(root, 0, stats);
+        stats.addMapBytes(TrieStats.arrayBytes(ranks.length, 2));
+        if (wordFilter != null) {
+            // Filters are lookup tables in front of the nodes, like the rank table.
+            stats.addMapBytes(wordFilter.bytes() + prefixFilter.bytes());
+        }
+        return stats;
+    }
+
+    /**
+      * Recursively records every node below x.
+      * @param x Current node.
+      * @param depth Depth of x.
+      * @param stats Report being filled in.
+      */
+    private void stats(Node x, int depth, TrieStats stats) {
+        int children = 0;
+        for (Node child : x.children) {
+            if (child != null) {
+                children += 1;
+            }
+        }
+        stats.recordNode(depth, children, x.exists);
+        stats.addNodeBytes(TrieStats.objectBytes(1 + 4 + 2 * TrieStats.REF));
+        // The empty sentinels are shared, so leaves hold no arrays of their own.
+        if (x.children != NO_CHILDREN) {
+            stats.addNodeBytes(TrieStats.arrayBytes(x.children.length, TrieStats.REF));
+            if (x.keys != null) {
+                stats.addNodeBytes(TrieStats.arrayBytes(x.keys.length, 2));
+            }
+        }
+        for (Node child : x.children) {
+            if (child != null) {
+                stats(child, depth + 1, stats);
+            }
+        }
+    }
+
+    /**
+      * Compares loading a word list one insert at a time with insertAll on pools of
+      * 1 to N threads, and checks that every load gives the same Trie. Then compares
+      * find in a loop with findAll on the sorted words and a near miss of each.
+      * Usage: java Trie file [maxThreads]
+      * @param args Name of the word list and the largest number of threads.
+      */
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args[0]);
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+        long best = Long.MAX_VALUE;
+        Trie expected = null;
+        for (int round = 0; round < 5; round += 1) {
+            long start = System.nanoTime();
+            expected = new Trie();
+            In in = new In(args[0]);
+            while (in.hasNextLine()) {
+                String word = in.readLine();
+                if (!word.isEmpty()) {
+                    expected.insert(word);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("insert:                %8.1f ms%n", best / 1e6);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            best = Long.MAX_VALUE;
+            Trie trie = null;
+            for (int round = 0; round < 5; round += 1) {
+                long start = System.nanoTime();
+                trie = new Trie();
+                trie.insertAll(file, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            // Dense arrays may be sized differently, so only the shapes are compared.
+            TrieStats got = trie.stats();
+            TrieStats want = expected.stats();
+            if (got.nodeCount() != want.nodeCount() || got.terminalCount() != want.terminalCount()
+                || !got.branchingHistogram().equals(want.branchingHistogram())) {
+                throw new IllegalStateException("insertAll built a different Trie");
+            }
+            System.out.printf("insertAll, %3d threads: %8.1f ms%n", threads, best / 1e6);
+        }
+
+        // Batch lookups of every word and a near miss of each, sorted.
+        ArrayList<String> batch = new ArrayList<String>();
+        In in = new In(args[0]);
+        while (in.hasNextLine()) {
+            String word = in.readLine();
+            if (!word.isEmpty()) {
+                batch.add(word);
+                batch.add(word.substring(0, word.length() - 1) + 'q');
+            }
+        }
+        String[] queries = batch.toArray(new String[0]);
+        Arrays.sort(queries);
+        for (boolean isFullWord : new boolean[] {true, false}) {
+            long findTime = Long.MAX_VALUE;
+            long findAllTime = Long.MAX_VALUE;
+            BitSet loop = new BitSet();
+            BitSet all = null;
+            for (int round = 0; round < 5; round += 1) {
+                long start = System.nanoTime();
+                for (int i = 0; i < queries.length; i += 1) {
+                    loop.set(i, expected.find(queries[i], isFullWord));
+                }
+                findTime = Math.min(findTime, System.nanoTime() - start);
+                start = System.nanoTime();
+                all = expected.findAll(queries, isFullWord);
+                findAllTime = Math.min(findAllTime, System.nanoTime() - start);
+            }
+            if (!loop.equals(all)) {
+                throw new IllegalStateException("findAll disagrees with find");
+            }
+            System.out.printf("%,d sorted %s lookups: find %.1f ms, findAll %.1f ms%n",
+                              queries.length, isFullWord ? "word" : "prefix",
+                              findTime / 1e6, findAllTime / 1e6);
+        }
+    }
+
     /** 
       * A single node in a Trie. Contains boolean exists that determines whether 
-      * the node represents the last letter of a word in the tree. Also contains 
-      * a HashMap linking to other Nodes.
+      * the node represents the last letter of a word in the tree. A sparse node
+      * keeps its letters sorted in keys, parallel to children; a dense node has
+      * null keys and children indexed by the letters' dense ranks.
+      * Every node also counts the words below it, so prefixes are counted in
+      * O(prefix length).
       */
-    private class Node {
+    private static class Node {
         boolean exists;
-        HashMap<Character, Node> links;
+        /** Number of words in the subtree rooted here, including this node's. */
+        int count;
+        char[] keys;
+        Node[] children;
 
         /**
           * Constructor for the Node.
           */
         public Node() {
-            links = new HashMap<Character, Node>();
+            keys = NO_KEYS;
+            children = NO_CHILDREN;
             exists = false; 
         }
     }
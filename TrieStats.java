@@ -0,0 +1,289 @@
+import java.util.TreeMap;
+import java.util.Map;
+/**
+ * Size and shape report for the trie variants (Trie, AlphabetSort.SortedTrie and
+ * the WeightedTST behind Autocomplete). Records node and terminal counts, depth,
+ * a branching-factor histogram and an estimate of retained heap split into nodes,
+ * strings, maps and weights.
+ * Byte estimates assume a 64-bit JVM with compressed oops (12 byte object headers,
+ * 4 byte references, 8 byte alignment).
+ * @author William Zhuang
+ */
+public class TrieStats {
+    static final int HEADER = 12;
+    static final int REF = 4;
+    static final int ARRAY_HEADER = 16;
+
+    private String name;
+    private long nodes;
+    private long terminals;
+    private long terminalDepthSum;
+    private int maxDepth;
+    private TreeMap<Integer, Long> branching;
+
+    private long nodeBytes;
+    private long stringBytes;
+    private long mapBytes;
+    private long weightBytes;
+
+    /**
+      * Constructs an empty report.
+      * @param name0 Name of the structure being measured.
+      */
+    public TrieStats(String name0) {
+        name = name0;
+        branching = new TreeMap<Integer, Long>();
+    }
+
+    /**
+      * Records a single node of the structure.
+      * @param depth Depth of the node, with the root at depth 0.
+      * @param children Number of non-null children of the node.
+      * @param terminal Whether the node marks the end of a word.
+      */
+    void recordNode(int depth, int children, boolean terminal) {
+        nodes += 1;
+        if (terminal) {
+            terminals += 1;
+            terminalDepthSum += depth;
+        }
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        Long count = branching.get(children);
+        branching.put(children, count == null ? 1L : count + 1);
+    }
+
+    /** @param bytes Bytes held by node objects and their child arrays. */
+    void addNodeBytes(long bytes) {
+        nodeBytes += bytes;
+    }
+
+    /** @param bytes Bytes held by String objects. */
+    void addStringBytes(long bytes) {
+        stringBytes += bytes;
+    }
+
+    /** @param bytes Bytes held by maps, their tables, entries and boxed keys. */
+    void addMapBytes(long bytes) {
+        mapBytes += bytes;
+    }
+
+    /** @param bytes Bytes held by weights, boxed or primitive. */
+    void addWeightBytes(long bytes) {
+        weightBytes += bytes;
+    }
+
+    /** @return Name of the structure being measured. */
+    public String name() {
+        return name;
+    }
+
+    /** @return Number of nodes. */
+    public long nodeCount() {
+        return nodes;
+    }
+
+    /** @return Number of nodes that end a word. */
+    public long terminalCount() {
+        return terminals;
+    }
+
+    /** @return Depth of the deepest node. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** @return Mean depth of the terminal nodes, or 0 if there are none. */
+    public double averageDepth() {
+        if (terminals == 0) {
+            return 0;
+        }
+        return (double) terminalDepthSum / terminals;
+    }
+
+    /**
+      * Returns the branching-factor histogram.
+      * @return Map from number of children to number of nodes with that many children.
+      */
+    public Map<Integer, Long> branchingHistogram() {
+        return branching;
+    }
+
+    /** @return Estimated bytes in node objects. */
+    public long nodeBytes() {
+        return nodeBytes;
+    }
+
+    /** @return Estimated bytes in Strings. */
+    public long stringBytes() {
+        return stringBytes;
+    }
+
+    /** @return Estimated bytes in maps. */
+    public long mapBytes() {
+        return mapBytes;
+    }
+
+    /** @return Estimated bytes in weights. */
+    public long weightBytes() {
+        return weightBytes;
+    }
+
+    /** @return Estimated total retained bytes. */
+    public long totalBytes() {
+        return nodeBytes + stringBytes + mapBytes + weightBytes;
+    }
+
+    /**
+      * Formats the report.
+      * @return Multi-line, human readable report.
+      */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append('\n');
+        sb.append(String.format("  nodes          %,14d%n", nodes));
+        sb.append(String.format("  terminals      %,14d%n", terminals));
+        sb.append(String.format("  max depth      %14d%n", maxDepth));
+        sb.append(String.format("  avg depth      %14.2f%n", averageDepth()));
+        sb.append("  branching\n");
+        for (Map.Entry<Integer, Long> e : branching.entrySet()) {
+            sb.append(String.format("    %6d %s %,12d%n", e.getKey(),
+                                    e.getKey() == 1 ? "child   " : "children", e.getValue()));
+        }
+        sb.append(String.format("  bytes (est.)   %,14d%n", totalBytes()));
+        sb.append(String.format("    nodes        %,14d%n", nodeBytes));
+        sb.append(String.format("    strings      %,14d%n", stringBytes));
+        sb.append(String.format("    maps         %,14d%n", mapBytes));
+        sb.append(String.format("    weights      %,14d%n", weightBytes));
+        return sb.toString();
+    }
+
+    /**
+      * Rounds a size up to the JVM's 8 byte object alignment.
+      * @param bytes Unaligned size.
+      * @return Aligned size.
+      */
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+      * Estimates the size of a plain object.
+      * @param fieldBytes Sum of the sizes of the object's fields.
+      * @return Aligned size including the header.
+      */
+    static long objectBytes(long fieldBytes) {
+        return align(HEADER + fieldBytes);
+    }
+
+    /**
+      * Estimates the size of an array.
+      * @param length Number of elements.
+      * @param elementBytes Size of a single element.
+      * @return Aligned size including the header.
+      */
+    static long arrayBytes(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+      * Estimates the retained size of a String, including its backing array.
+      * Latin-1 strings are stored compactly at one byte per char.
+      * @param s String to be measured.
+      * @return Estimated bytes, or 0 if s is null.
+      */
+    static long stringBytes(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int width = 1;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) > 0xFF) {
+                width = 2;
+                break;
+            }
+        }
+        return objectBytes(REF + 4 + 1 + 1) + arrayBytes(s.length(), width);
+    }
+
+    /**
+      * Estimates the size of a HashMap, excluding keys and values.
+      * The table is allocated lazily on the first put and resized at 0.75 load.
+      * @param size Number of entries.
+      * @return Estimated bytes for the map object, its table and its entries.
+      */
+    static long hashMapBytes(int size) {
+        long bytes = objectBytes(3 * REF + 4 * 4 + REF);
+        if (size == 0) {
+            return bytes;
+        }
+        int capacity = 16;
+        while (size > capacity * 3 / 4) {
+            capacity *= 2;
+        }
+        return bytes + arrayBytes(capacity, REF) + size * objectBytes(4 + 3 * REF);
+    }
+
+    /**
+      * Estimates the size of a boxed Character. Values below 128 are cached.
+      * @param c Character being boxed.
+      * @return 0 for cached values, otherwise the size of a Character.
+      */
+    static long characterBytes(char c) {
+        if (c < 128) {
+            return 0;
+        }
+        return objectBytes(2);
+    }
+
+    /**
+      * Loads a dictionary into one of the structures and prints its report.
+      * Usage: java TrieStats [trie|sorted|autocomplete] file
+      * trie and sorted read one word per line; autocomplete reads the weighted
+      * term format used by Autocomplete.main.
+      * @param args Structure name followed by the input file.
+      */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java TrieStats [trie|sorted|autocomplete] file");
+            return;
+        }
+
+        In in = new In(args[1]);
+        TrieStats stats;
+        if (args[0].equals("trie")) {
+            Trie trie = new Trie();
+            while (in.hasNextLine()) {
+                String word = in.readLine();
+                if (!word.isEmpty()) {
+                    trie.insert(word);
+                }
+            }
+            stats = trie.stats();
+        } else if (args[0].equals("sorted")) {
+            AlphabetSort.SortedTrie trie = new AlphabetSort.SortedTrie();
+            while (in.hasNextLine()) {
+                String word = in.readLine();
+                if (!word.isEmpty()) {
+                    trie.insert(word);
+                }
+            }
+            stats = trie.stats();
+        } else if (args[0].equals("autocomplete")) {
+            int N = Integer.parseInt(in.readLine().trim());
+            String[] terms = new String[N];
+            double[] weights = new double[N];
+            for (int i = 0; i < N; i += 1) {
+                String line = in.readLine();
+                int tab = line.indexOf('\t');
+                weights[i] = Double.parseDouble(line.substring(0, tab).trim());
+                terms[i] = line.substring(tab + 1);
+            }
+            stats = new Autocomplete(terms, weights).stats();
+        } else {
+            throw new IllegalArgumentException("Unknown structure: " + args[0]);
+        }
+        System.out.print(stats);
+    }
+}
@@ -2,6 +2,23 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -27,6 +44,704 @@ public class TrieTest {
 
     }
 
+    /**
+     * Tests that stats() counts nodes, terminals and depth.
+     */
+    @Test
+    public void testStats() {
+        Trie t = new Trie();
+        t.insert("he");
+        t.insert("hey");
+        t.insert("go");
+        TrieStats stats = t.stats();
+        assertEquals(6, stats.nodeCount());
+        assertEquals(3, stats.terminalCount());
+        assertEquals(3, stats.maxDepth());
+        assertEquals(2, (long) stats.branchingHistogram().get(0));
+        assertTrue(stats.totalBytes() > 0);
+    }
+
+    /**
+     * Tests find against a HashSet while nodes go sparse, then dense, and while
+     * the alphabet grows past the size where dense nodes are used.
+     */
+    @Test
+    public void testAdaptiveNodes() {
+        Random random = new Random(61);
+        for (int alphabet : new int[] {3, 30, 400}) {
+            StringBuilder letters = new StringBuilder();
+            for (int c = 0; c < alphabet + 2; c += 1) {
+                letters.append((char) ('a' + c));
+            }
+            Trie t = new Trie();
+            HashSet<String> words = new HashSet<String>();
+            HashSet<String> prefixes = new HashSet<String>();
+            for (int i = 0; i < 2000; i += 1) {
+                String word = randomWord(random, letters.substring(0, alphabet), 1, 4);
+                for (int j = 1; j <= word.length(); j += 1) {
+                    prefixes.add(word.substring(0, j));
+                }
+                words.add(word);
+                t.insert(word);
+            }
+            for (int i = 0; i < 2000; i += 1) {
+                String s = randomWord(random, letters.toString(), 1, 5);
+                assertEquals(s, words.contains(s), t.find(s, true));
+                assertEquals(s, prefixes.contains(s), t.find(s, false));
+            }
+        }
+    }
+
+    /**
+     * Tests that a Dawg answers like a Trie while sharing common suffixes.
+     */
+    @Test
+    public void testDawg() {
+        Dawg small = new Dawg(Arrays.asList("tap", "taps", "top", "tops"));
+        assertTrue(small.find("tops", true));
+        assertTrue(small.find("to", false));
+        assertEquals(false, small.find("to", true));
+        assertEquals(false, small.find("tas", false));
+        // The root, t, one node for both a and o, then p and s.
+        assertEquals(5, small.stats().nodeCount());
+
+        Random random = new Random(61);
+        TreeSet<String> words = new TreeSet<String>();
+        Trie t = new Trie();
+        for (int i = 0; i < 3000; i += 1) {
+            String word = randomWord(random, "abcd", 1, 6);
+            words.add(word);
+            t.insert(word);
+        }
+        Dawg dawg = new Dawg(words);
+        assertEquals(words.size(), dawg.size());
+        assertTrue(dawg.stats().nodeCount() < t.stats().nodeCount());
+        for (int i = 0; i < 3000; i += 1) {
+            String s = randomWord(random, "abcde", 1, 7);
+            assertEquals(s, t.find(s, true), dawg.find(s, true));
+            assertEquals(s, t.find(s, false), dawg.find(s, false));
+        }
+    }
+
+    /**
+     * Tests SuccinctTrie's find against a Trie and its prefix enumeration against a
+     * sorted set, with multi-byte characters in the labels.
+     */
+    @Test
+    public void testSuccinctTrie() {
+        Random random = new Random(61);
+        String alphabet = "abc\u00e9\u4e2d";
+        TreeSet<String> words = new TreeSet<String>();
+        Trie t = new Trie();
+        for (int i = 0; i < 2000; i += 1) {
+            String word = randomWord(random, alphabet, 1, 5).replace("c", "\ud83d\ude00");
+            words.add(word);
+            t.insert(word);
+        }
+        SuccinctTrie succinct = new SuccinctTrie(words);
+        assertEquals(words.size(), succinct.size());
+        // Multi-byte characters take one node per UTF-8 byte.
+        assertTrue(succinct.nodeCount() > t.stats().nodeCount());
+
+        // Queries may hold half of a surrogate pair, which no word does.
+        String queryAlphabet = alphabet + "\ud83d\ude00\ud83c";
+        for (int i = 0; i < 2000; i += 1) {
+            String s = randomWord(random, queryAlphabet, 0, 4);
+            assertEquals(s, t.find(s, true), succinct.find(s, true));
+            assertEquals(s, t.find(s, false), succinct.find(s, false));
+
+            ArrayList<String> expected = new ArrayList<String>();
+            for (String word : words.tailSet(s)) {
+                if (!word.startsWith(s)) {
+                    break;
+                }
+                expected.add(word);
+            }
+            ArrayList<String> actual = new ArrayList<String>();
+            for (String word : succinct.wordsWithPrefix(s)) {
+                actual.add(word);
+            }
+            assertEquals(s, expected, actual);
+        }
+
+        // getBytes would encode the lone surrogate as '?'.
+        SuccinctTrie question = new SuccinctTrie(Arrays.asList("a?"));
+        assertEquals(false, question.find("a\ud800", true));
+        assertEquals(false, question.find("a\ud800", false));
+        try {
+            new SuccinctTrie(Arrays.asList("a\ud800"));
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("surrogate"));
+        }
+    }
+
+    /**
+     * Tests ConcurrentTrie under concurrent inserts and finds. Insert-only sets are
+     * linearizable if every find that returns true overlaps or follows an insert of
+     * the word, and every find that starts after an insert returns is true.
+     */
+    @Test
+    public void testConcurrentTrie() throws InterruptedException {
+        Random random = new Random(61);
+        HashSet<String> distinct = new HashSet<String>();
+        while (distinct.size() < 10000) {
+            // Letters 32 apart share a slot, so chains get exercised.
+            distinct.add(randomWord(random, "abcd\u0081\u0082\u0083\u0084", 1, 7));
+        }
+        String[] words = distinct.toArray(new String[0]);
+
+        ConcurrentTrie trie = new ConcurrentTrie();
+        // Per word: 1 once an insert has started, 2 once one has returned.
+        AtomicIntegerArray state = new AtomicIntegerArray(words.length);
+        AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[6];
+        for (int t = 0; t < threads.length; t += 1) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                Random r = new Random(id);
+                for (int op = 0; op < 40000; op += 1) {
+                    int w = r.nextInt(words.length);
+                    if (id % 2 == 0) {
+                        state.compareAndSet(w, 0, 1);
+                        trie.insert(words[w]);
+                        state.set(w, 2);
+                        if (!trie.find(words[w], true)) {
+                            failure.set("own insert not visible: " + words[w]);
+                        }
+                    } else {
+                        boolean inserted = state.get(w) == 2;
+                        boolean found = trie.find(words[w], true);
+                        if (inserted && !found) {
+                            failure.set("find missed a completed insert: " + words[w]);
+                        }
+                        if (found && state.get(w) == 0) {
+                            failure.set("find saw an insert that had not started: " + words[w]);
+                        }
+                        if (found && !trie.find(words[w].substring(0, 1), false)) {
+                            failure.set("word found without its prefix: " + words[w]);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(null, failure.get());
+
+        for (int w = 0; w < words.length; w += 1) {
+            assertEquals(words[w], state.get(w) == 2, trie.find(words[w], true));
+        }
+    }
+
+    /**
+     * Tests that insertAll gives the same answers as inserting line by line, with
+     * CRLF line ends, empty lines and non-ASCII words in the file.
+     */
+    @Test
+    public void testInsertAll() throws IOException {
+        Random random = new Random(61);
+        // DEL is the last ASCII bucket of the parallel load.
+        String alphabet = "abcd\u00e9\u007f";
+        StringBuilder file = new StringBuilder();
+        Trie expected = new Trie();
+        for (int i = 0; i < 20000; i += 1) {
+            String word = randomWord(random, alphabet, 0, 7);
+            file.append(word).append(random.nextBoolean() ? "\n" : "\r\n");
+            if (!word.isEmpty()) {
+                expected.insert(word);
+            }
+        }
+        Path path = Files.createTempFile("words", ".txt");
+        try {
+            Files.write(path, file.toString().getBytes(StandardCharsets.UTF_8));
+            Trie t = new Trie();
+            t.insertAll(path, new ForkJoinPool(4));
+            assertEquals(expected.stats().nodeCount(), t.stats().nodeCount());
+            for (int i = 0; i < 5000; i += 1) {
+                String s = randomWord(random, alphabet, 1, 8);
+                assertEquals(s, expected.find(s, true), t.find(s, true));
+                assertEquals(s, expected.find(s, false), t.find(s, false));
+            }
+        } finally {
+            Files.delete(path);
+        }
+
+        // More lines than one task loads alone, with DEL first in one of them.
+        StringBuilder del = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            del.append('w').append(i).append('\n');
+        }
+        del.append("\u007fdel\n");
+        path = Files.createTempFile("words", ".txt");
+        try {
+            Files.write(path, del.toString().getBytes(StandardCharsets.UTF_8));
+            Trie t = new Trie();
+            t.insertAll(path, new ForkJoinPool(4));
+            assertEquals(2001, t.size());
+            assertTrue(t.find("\u007fdel", true));
+            assertTrue(t.find("w1999", true));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Tests that filters never change find's answers, including for words inserted
+     * after the filters were built, and that their false-positive rate is near target.
+     */
+    @Test
+    public void testFilters() {
+        Random random = new Random(61);
+        Trie plain = new Trie();
+        Trie filtered = new Trie();
+        for (int i = 0; i < 4000; i += 1) {
+            if (i == 2000) {
+                filtered.enableFilters(0.01, 2);
+            }
+            String word = randomWord(random, "abcdef", 1, 8);
+            plain.insert(word);
+            filtered.insert(word);
+        }
+        for (int i = 0; i < 20000; i += 1) {
+            String s = randomWord(random, "abcdefgh", 0, 8);
+            assertEquals(s, plain.find(s, true), filtered.find(s, true));
+            assertEquals(s, plain.find(s, false), filtered.find(s, false));
+        }
+
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i += 1) {
+            filter.add("in" + i);
+        }
+        int passed = 0;
+        for (int i = 0; i < 10000; i += 1) {
+            assertTrue(filter.mightContain("in" + i));
+            passed += filter.mightContain("out" + i) ? 1 : 0;
+        }
+        assertTrue("false positives: " + passed, passed < 250);
+    }
+
+    /**
+     * Tests findAll against find on sorted and unsorted batches.
+     */
+    @Test
+    public void testFindAll() {
+        Random random = new Random(61);
+        Trie t = new Trie();
+        String[] queries = new String[5000];
+        for (int i = 0; i < queries.length; i += 1) {
+            queries[i] = randomWord(random, "abcd", 0, 6);
+            if (!queries[i].isEmpty() && i % 2 == 0) {
+                t.insert(queries[i]);
+            }
+        }
+        for (boolean sorted : new boolean[] {false, true}) {
+            if (sorted) {
+                Arrays.sort(queries);
+            }
+            for (boolean isFullWord : new boolean[] {false, true}) {
+                BitSet found = t.findAll(queries, isFullWord);
+                for (int i = 0; i < queries.length; i += 1) {
+                    assertEquals(queries[i], t.find(queries[i], isFullWord), found.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests match against java.util.regex over random globs, and that
+     * matches come out lazily in sorted order.
+     */
+    @Test
+    public void testMatch() {
+        Random random = new Random(61);
+        Trie t = new Trie();
+        TreeSet<String> words = new TreeSet<String>();
+        // Enough letters that the root goes dense, with most words on the first four.
+        String alphabet = "abcdefghijkl";
+        for (int i = 0; i < 3000; i += 1) {
+            String word = randomWord(random, random.nextBoolean() ? "abcd" : alphabet, 1, 6);
+            words.add(word);
+            t.insert(word);
+        }
+
+        String[] globs = {"?", ".", "*", "[ab]", "[^c]", "[a-c]", "a", "b", "d"};
+        String[] regexes = {".", ".", ".*", "[ab]", "[^c]", "[a-c]", "a", "b", "d"};
+        for (int q = 0; q < 300; q += 1) {
+            StringBuilder glob = new StringBuilder();
+            StringBuilder regex = new StringBuilder();
+            int length = 1 + random.nextInt(5);
+            for (int j = 0; j < length; j += 1) {
+                int e = random.nextInt(globs.length);
+                glob.append(globs[e]);
+                regex.append(regexes[e]);
+            }
+            ArrayList<String> expected = new ArrayList<String>();
+            for (String word : words) {
+                if (word.matches(regex.toString())) {
+                    expected.add(word);
+                }
+            }
+            ArrayList<String> actual = new ArrayList<String>();
+            for (String word : t.match(glob.toString())) {
+                actual.add(word);
+            }
+            assertEquals(glob.toString(), expected, actual);
+        }
+
+        Trie small = new Trie();
+        for (String word : new String[] {"hello", "hallo", "hull", "hills", "hell", "bees", "eels"}) {
+            small.insert(word);
+        }
+        assertEquals(Arrays.asList("hallo", "hell", "hello", "hills", "hull"),
+                     toList(small.match("h?ll*")));
+        assertEquals(Arrays.asList("eels"), toList(small.match("[aeiou]..s")));
+        assertEquals(Arrays.asList("hills"), toList(small.match("h[^ae]ll\\s")));
+    }
+
+    /**
+     * Tests that AhoCorasick finds exactly the occurrences a brute-force indexOf scan
+     * finds, through every entry point, with multi-byte characters in the file, and
+     * that a file of malformed UTF-8 is read like new String(bytes, UTF_8).
+     */
+    @Test
+    public void testAhoCorasick() throws IOException {
+        Random random = new Random(61);
+        String alphabet = "aab\u00e9\u20ac";
+        Trie t = new Trie();
+        TreeSet<String> terms = new TreeSet<String>();
+        for (int i = 0; i < 200; i += 1) {
+            String term = randomWord(random, alphabet, 1, 5);
+            t.insert(term);
+            terms.add(term);
+        }
+        String text = randomWord(random, alphabet, 5000, 5000);
+
+        HashSet<String> expected = new HashSet<String>();
+        HashSet<String> expectedBytes = new HashSet<String>();
+        for (String term : terms) {
+            for (int i = text.indexOf(term); i >= 0; i = text.indexOf(term, i + 1)) {
+                expected.add(i + ":" + term);
+                int offset = text.substring(0, i).getBytes(StandardCharsets.UTF_8).length;
+                expectedBytes.add(offset + ":" + term);
+            }
+        }
+
+        AhoCorasick automaton = new AhoCorasick(t);
+        ArrayList<String> found = new ArrayList<String>();
+        automaton.scan(text, (start, term) -> found.add(start + ":" + term));
+        assertEquals(expected.size(), found.size());
+        assertEquals(expected, new HashSet<String>(found));
+
+        found.clear();
+        automaton.scan(new StringReader(text), (start, term) -> found.add(start + ":" + term));
+        assertEquals(expected, new HashSet<String>(found));
+
+        Path path = Files.createTempFile("text", ".txt");
+        try {
+            Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+            found.clear();
+            automaton.scan(path, (start, term) -> found.add(start + ":" + term));
+            assertEquals(expectedBytes.size(), found.size());
+            assertEquals(expectedBytes, new HashSet<String>(found));
+
+            // Malformed UTF-8 must be read as new String(bytes, UTF_8) reads it.
+            Trie small = new Trie();
+            for (String term : new String[] {"\uFFFDx", "\u0000x", "x", "\uFFFD\uFFFD",
+                                             "\ud800", "\ud800x"}) {
+                small.insert(term);
+            }
+            AhoCorasick replaced = new AhoCorasick(small);
+            int[][] malformed = {
+                {0xC0, 0x80, 0x78}, {0xED, 0xA0, 0x80, 0x78}, {0xF4, 0x90, 0x80, 0x80, 0x78},
+                {0xF5, 0x80, 0x80, 0x80, 0x78}, {0xE0, 0x80, 0x80, 0x78}, {0xF0, 0x80, 0x80, 0x78},
+                {0xE1, 0x80, 0x78}, {0xED, 0xA0, 0x78}, {0x78, 0xF1, 0x80, 0x80}
+            };
+            int[] pool = {0x78, 0x80, 0x8F, 0x90, 0xA0, 0xBF, 0xC0, 0xC3, 0xE0, 0xED, 0xEF,
+                          0xF0, 0xF4, 0xF5, 0xFF};
+            ArrayList<int[]> inputs = new ArrayList<int[]>(Arrays.asList(malformed));
+            for (int i = 0; i < 300; i += 1) {
+                int[] bytes = new int[1 + random.nextInt(12)];
+                for (int j = 0; j < bytes.length; j += 1) {
+                    bytes[j] = pool[random.nextInt(pool.length)];
+                }
+                inputs.add(bytes);
+            }
+            for (int[] input : inputs) {
+                byte[] bytes = new byte[input.length];
+                for (int j = 0; j < input.length; j += 1) {
+                    bytes[j] = (byte) input[j];
+                }
+                String decoded = new String(bytes, StandardCharsets.UTF_8);
+                ArrayList<String> fromString = new ArrayList<String>();
+                replaced.scan(decoded, (start, term) -> fromString.add(term));
+                Files.write(path, bytes);
+                found.clear();
+                replaced.scan(path, (start, term) -> found.add(term));
+                assertEquals(Arrays.toString(input), fromString, found);
+            }
+            Files.write(path, new byte[] {(byte) 0xC0, (byte) 0x80, 0x78});
+            found.clear();
+            replaced.scan(path, (start, term) -> found.add(start + ":" + term));
+            assertEquals(Arrays.asList("0:\uFFFD\uFFFD", "1:\uFFFDx", "2:x"), found);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Tests countWithPrefix, longestPrefixOf and ordered iteration against a sorted
+     * set, with repeated inserts and after insertAll.
+     */
+    @Test
+    public void testPrefixQueries() throws IOException {
+        Random random = new Random(61);
+        String alphabet = "abc\u00e9";
+        TreeSet<String> words = new TreeSet<String>();
+        Trie t = new Trie();
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 3000; i += 1) {
+            String word = randomWord(random, alphabet, 1, 6);
+            t.insert(word);
+            words.add(word);
+            file.append(word).append('\n');
+        }
+        Path path = Files.createTempFile("words", ".txt");
+        Trie bulk = new Trie();
+        try {
+            Files.write(path, file.toString().getBytes(StandardCharsets.UTF_8));
+            bulk.insertAll(path);
+        } finally {
+            Files.delete(path);
+        }
+
+        assertEquals(words.size(), t.size());
+        assertEquals(words.size(), bulk.size());
+        assertEquals(new ArrayList<String>(words), toList(t.words()));
+        assertEquals(new ArrayList<String>(words), toList(bulk.words()));
+        for (int i = 0; i < 500; i += 1) {
+            String prefix = randomWord(random, alphabet, 0, 3);
+            ArrayList<String> expected = new ArrayList<String>();
+            for (String word : words.tailSet(prefix)) {
+                if (!word.startsWith(prefix)) {
+                    break;
+                }
+                expected.add(word);
+            }
+            assertEquals(prefix, expected.size(), t.countWithPrefix(prefix));
+            assertEquals(prefix, expected.size(), bulk.countWithPrefix(prefix));
+            assertEquals(prefix, expected, toList(t.wordsWithPrefix(prefix)));
+
+            String text = "x" + prefix + new StringBuilder(prefix).reverse();
+            int longest = 0;
+            for (int end = 2; end <= text.length(); end += 1) {
+                if (words.contains(text.substring(1, end))) {
+                    longest = end - 1;
+                }
+            }
+            assertEquals(text, longest, t.longestPrefixOf(text, 1));
+        }
+        assertEquals(0, t.longestPrefixOf("xyz", 0));
+        assertEquals(0, t.countWithPrefix("xyz"));
+        assertEquals(0, toList(t.wordsWithPrefix("xyz")).size());
+    }
+
+    /**
+     * Tests that SortedTrie.alphabetize follows the given alphabet, keeps words that
+     * contain spaces whole, and streams the same words to a Writer.
+     */
+    @Test
+    public void testAlphabetize() throws IOException {
+        AlphabetSort.SortedTrie t = new AlphabetSort.SortedTrie();
+        for (String word : new String[] {"cab", "ba", "b a", "a", "abc", "c"}) {
+            t.insert(word);
+        }
+        String[] expected = {"c", "cab", "b a", "ba", "a", "abc"};
+        assertArrayEquals(expected, t.alphabetize("c ba"));
+        StringWriter out = new StringWriter();
+        t.alphabetize("c ba", out);
+        assertEquals(String.join("\n", expected) + "\n", out.toString());
+    }
+
+    /**
+     * Tests that the radix engine sorts like SortedTrie, with repeats, shared prefixes
+     * and input that is already sorted.
+     */
+    @Test
+    public void testRadixSort() {
+        Random random = new Random(61);
+        String alphabet = "dacb\u00e9";
+        int[] rank = AlphabetSort.RadixSort.ranks(alphabet);
+        String[] words = new String[5000];
+        AlphabetSort.SortedTrie t = new AlphabetSort.SortedTrie();
+        for (int i = 0; i < words.length; i += 1) {
+            words[i] = randomWord(random, alphabet, 1, 6);
+            t.insert(words[i]);
+        }
+        String[] expected = t.alphabetize(alphabet);
+        for (int round = 0; round < 2; round += 1) {
+            AlphabetSort.RadixSort.sort(words, rank);
+            ArrayList<String> distinct = new ArrayList<String>();
+            for (int i = 0; i < words.length; i += 1) {
+                if (i == 0 || !words[i].equals(words[i - 1])) {
+                    distinct.add(words[i]);
+                }
+            }
+            assertArrayEquals(expected, distinct.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Tests that the parallel engine sorts and prints like SortedTrie when most words
+     * start with the same letter, so that bucket is split again.
+     */
+    @Test
+    public void testParallelSort() throws IOException {
+        Random random = new Random(61);
+        String alphabet = "dacb\u00e9";
+        int[] rank = AlphabetSort.RadixSort.ranks(alphabet);
+        String[] words = new String[60000];
+        AlphabetSort.SortedTrie t = new AlphabetSort.SortedTrie();
+        for (int i = 0; i < words.length; i += 1) {
+            words[i] = (random.nextInt(10) == 0 ? "" : "a") + randomWord(random, alphabet, 1, 8);
+            t.insert(words[i]);
+        }
+        StringWriter expected = new StringWriter();
+        t.alphabetize(alphabet, expected);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        StringWriter out = new StringWriter();
+        AlphabetSort.ParallelSort.write(words.clone(), rank, pool, out);
+        assertEquals(expected.toString(), out.toString());
+        AlphabetSort.ParallelSort.sort(words, rank, pool);
+        for (int i = 1; i < words.length; i += 1) {
+            assertTrue(AlphabetSort.RadixSort.compare(words[i - 1], words[i], rank) <= 0);
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Tests that the external sort prints what SortedTrie does when it has to spill
+     * many runs and merge them in several passes, and when the input fits in one run.
+     */
+    @Test
+    public void testExternalSort() throws IOException {
+        Random random = new Random(61);
+        String alphabet = "dacb\u00e9";
+        StringBuilder input = new StringBuilder(alphabet).append('\n');
+        AlphabetSort.SortedTrie t = new AlphabetSort.SortedTrie();
+        for (int i = 0; i < 3000; i += 1) {
+            String word = randomWord(random, alphabet, 1, 6);
+            // Words with letters outside the alphabet are skipped by every engine.
+            if (i % 100 == 0) {
+                word += "x";
+            }
+            t.insert(word);
+            input.append(word).append('\n');
+        }
+        StringWriter expected = new StringWriter();
+        t.alphabetize(alphabet, expected);
+        for (int[] config : new int[][] {{50, 2}, {50, 64}, {10000, 2}}) {
+            StringWriter out = new StringWriter();
+            new AlphabetSort.ExternalSort(config[0], config[1]).sort(
+                new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), out);
+            assertEquals(expected.toString(), out.toString());
+        }
+    }
+
+    /**
+     * Tests LineReader on CRLF, a lone CR, a missing final newline and a multi-byte line
+     * longer than its buffer, the alphabet bitmap, and that every engine can print
+     * duplicates.
+     */
+    @Test
+    public void testDuplicates() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 50000; i += 1) {
+            longLine.append("a\u00e9");
+        }
+        String text = "ab\r\n\nb\u00e9a\na\rb\n" + longLine + "\nlast";
+        AlphabetSort.LineReader in = new AlphabetSort.LineReader(
+            new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        ArrayList<String> lines = new ArrayList<String>();
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lines.add(line);
+        }
+        assertEquals(Arrays.asList("ab", "", "b\u00e9a", "a\rb", longLine.toString(), "last"),
+                     lines);
+
+        AlphabetSort.checkAlphabet("abc\u00e9");
+        try {
+            AlphabetSort.checkAlphabet("abca");
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("multiple"));
+        }
+
+        String alphabet = "cba";
+        String[] words = {"ab", "c", "ab", "ba", "ab", "c"};
+        String expected = "c\nc\nba\nab\nab\nab\n";
+        AlphabetSort.SortedTrie t = new AlphabetSort.SortedTrie();
+        AlphabetSort.WordCounts counts = new AlphabetSort.WordCounts();
+        StringBuilder input = new StringBuilder(alphabet).append('\n');
+        for (String word : words) {
+            t.insert(word);
+            counts.add(word);
+            input.append(word).append('\n');
+        }
+        // A lone \r does not end a line, so this is one word with a letter outside the alphabet.
+        input.append("ab\rc\n");
+        StringWriter out = new StringWriter();
+        t.alphabetize(alphabet, out, true);
+        assertEquals(expected, out.toString());
+        assertEquals(3, counts.size());
+        assertEquals(3, counts.count("ab"));
+
+        out = new StringWriter();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        AlphabetSort.ParallelSort.write(counts.words(), AlphabetSort.RadixSort.ranks(alphabet),
+                                        pool, out, counts);
+        pool.shutdown();
+        assertEquals(expected, out.toString());
+
+        out = new StringWriter();
+        new AlphabetSort.ExternalSort(1, 2, true).sort(
+            new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals(expected, out.toString());
+    }
+
+    /**
+     * @param random Source of randomness.
+     * @param alphabet Letters to draw from.
+     * @param minLength Shortest length, inclusive.
+     * @param maxLength Longest length, inclusive.
+     * @return Word of letters drawn uniformly from the alphabet.
+     */
+    private static String randomWord(Random random, String alphabet, int minLength, 
+                                     int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        for (int i = 0; i < length; i += 1) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param words Words to copy.
+     * @return List of the words in iteration order.
+     */
+    private static ArrayList<String> toList(Iterable<String> words) {
+        ArrayList<String> list = new ArrayList<String>();
+        for (String word : words) {
+            list.add(word);
+        }
+        return list;
+    }
+
     public static void main(String[] args) {
         jh61b.junit.textui.runClasses(TrieTest.class);
     }
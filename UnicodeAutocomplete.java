@@ -0,0 +1,429 @@
+import java.text.Normalizer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+/**
+ * Autocomplete variant whose TST branches on Unicode code points instead of UTF-16
+ * chars, so supplementary characters (emoji, rarer CJK) take one node rather than
+ * being split into surrogate halves, and a prefix can never end halfway through one.
+ * Terms and queries can optionally be normalized (NFC or NFKC) so that composed and
+ * decomposed spellings of the same text match. The original term is returned.
+ * @author William Zhuang
+ * TST adapted from http://algs4.cs.princeton.edu/52trie/TST.java.html
+ */
+public class UnicodeAutocomplete {
+    private CodePointTST trie;
+    private TermWeightTable weightTable;
+    /** Normalization applied to terms and queries, or null for none. */
+    private Normalizer.Form form;
+
+    /**
+     * Initializes required data structures from parallel arrays, without normalization.
+     * @param terms Array of terms.
+     * @param weights Array of weights.
+     */
+    public UnicodeAutocomplete(String[] terms, double[] weights) {
+        this(terms, weights, null);
+    }
+
+    /**
+     * Initializes required data structures from parallel arrays.
+     * @param terms Array of terms.
+     * @param weights Array of weights.
+     * @param form0 Normalization applied at insert and query time, or null for none.
+     */
+    public UnicodeAutocomplete(String[] terms, double[] weights, Normalizer.Form form0) {
+        if (terms.length != weights.length) {
+            throw new IllegalArgumentException("The length of the terms and"
+                                               + "weights arrays are different.");
+        }
+
+        form = form0;
+        trie = new CodePointTST();
+        weightTable = new TermWeightTable(terms.length);
+        for (int i = 0; i < terms.length; i += 1) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Negative weight");
+            }
+            String key = normalize(terms[i]);
+            if (key.isEmpty()) {
+                throw new IllegalArgumentException("Empty terms cannot be added.");
+            }
+            if (!weightTable.add(key, weights[i])) {
+                throw new IllegalArgumentException("Duplicate terms exist.");
+            }
+            trie.insert(key.codePoints().toArray(), terms[i], weights[i]);
+        }
+    }
+
+    /**
+     * @param s Term or query.
+     * @return s in the configured normal form.
+     */
+    private String normalize(String s) {
+        if (form == null || Normalizer.isNormalized(s, form)) {
+            return s;
+        }
+        return Normalizer.normalize(s, form);
+    }
+
+    /**
+     * Find the weight of a given term. If it is not in the dictionary, return 0.0
+     * @param term String for which the weight is found.
+     * @return double Weight of the term
+     */
+    public double weightOf(String term) {
+        return weightTable.get(normalize(term), 0.0);
+    }
+
+    /**
+     * Return the top match for given prefix, or "" if there is no matching term.
+     * @param prefix Input prefix to match against.
+     * @return Best (highest weight) matching string in the dictionary.
+     */
+    public String topMatch(String prefix) {
+        Iterator<String> matches = completions(prefix);
+        if (matches.hasNext()) {
+            return matches.next();
+        }
+        return "";
+    }
+
+    /**
+     * Returns the top k matching terms (in descending order of weight) as an iterable.
+     * If there are less than k matches, return all the matching terms.
+     * @param prefix Prefix from which words are found.
+     * @param k      Number of terms to be returned.
+     * @return Iterable of the k top matching terms in descending order.
+     */
+    public Iterable<String> topMatches(String prefix, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative.");
+        }
+        LinkedHashSet<String> answers = new LinkedHashSet<String>();
+        Iterator<String> matches = completions(prefix);
+        while (answers.size() < k && matches.hasNext()) {
+            answers.add(matches.next());
+        }
+        return answers;
+    }
+
+    /**
+     * Returns every matching term, lazily, in descending order of weight.
+     * @param prefix Prefix from which words are found.
+     * @return Iterator over the matching terms in descending order.
+     */
+    public Iterator<String> completions(String prefix) {
+        return trie.new CompletionIterator(normalize(prefix).codePoints().toArray());
+    }
+
+    /**
+     * Reports node counts, depth, branching and estimated heap usage.
+     * @return TrieStats describing this UnicodeAutocomplete.
+     */
+    public TrieStats stats() {
+        TrieStats stats = new TrieStats("UnicodeAutocomplete");
+        trie.stats(trie.root, 0, stats);
+        stats.addMapBytes(weightTable.bytes());
+        stats.addWeightBytes(weightTable.weightBytes());
+        return stats;
+    }
+
+    /**
+     * Compares memory and query latency against the char-based Autocomplete.
+     * Usage: java UnicodeAutocomplete input.txt [NFC|NFKC]
+     *        java UnicodeAutocomplete --synthetic N
+     * The first form reads the weighted term format used by Autocomplete.main; the
+     * second generates N terms mixing Latin, accented, CJK and supplementary text.
+     * @param args See above.
+     */
+    public static void main(String[] args) {
+        String[] terms;
+        double[] weights;
+        Normalizer.Form form = null;
+        if (args[0].equals("--synthetic")) {
+            int N = Integer.parseInt(args[1]);
+            terms = syntheticTerms(N, new Random(N));
+            weights = new double[N];
+            for (int i = 0; i < N; i += 1) {
+                weights[i] = (i * 7919) % 100003;
+            }
+        } else {
+            In in = new In(args[0]);
+            int N = Integer.parseInt(in.readLine().trim());
+            terms = new String[N];
+            weights = new double[N];
+            for (int i = 0; i < N; i += 1) {
+                String line = in.readLine();
+                int tab = line.indexOf('\t');
+                weights[i] = Double.parseDouble(line.substring(0, tab).trim());
+                terms[i] = line.substring(tab + 1);
+            }
+            if (args.length > 1) {
+                form = Normalizer.Form.valueOf(args[1]);
+            }
+        }
+
+        Stopwatch timer = new Stopwatch();
+        Autocomplete chars = new Autocomplete(terms, weights);
+        double charBuild = timer.elapsedTime();
+        timer = new Stopwatch();
+        UnicodeAutocomplete codePoints = new UnicodeAutocomplete(terms, weights, form);
+        double codePointBuild = timer.elapsedTime();
+
+        System.out.print(chars.stats());
+        System.out.print(codePoints.stats());
+
+        Random random = new Random(1);
+        String[] prefixes = new String[200000];
+        for (int i = 0; i < prefixes.length; i += 1) {
+            String term = terms[random.nextInt(terms.length)];
+            int cut = 1 + random.nextInt(Math.min(3, term.codePointCount(0, term.length())));
+            prefixes[i] = term.substring(0, term.offsetByCodePoints(0, cut));
+        }
+        double score = 0;
+        for (int round = 0; round < 3; round += 1) {
+            long start = System.nanoTime();
+            for (String prefix : prefixes) {
+                for (String term : chars.topMatches(prefix, 5)) {
+                    score += term.length();
+                }
+            }
+            long middle = System.nanoTime();
+            for (String prefix : prefixes) {
+                for (String term : codePoints.topMatches(prefix, 5)) {
+                    score += term.length();
+                }
+            }
+            long end = System.nanoTime();
+            System.out.println(String.format("round %d: char TST %.2f us/query (built in %.0f ms), "
+                                             + "code point TST %.2f us/query (built in %.0f ms)",
+                                             round, (middle - start) / 1e3 / prefixes.length,
+                                             charBuild * 1000,
+                                             (end - middle) / 1e3 / prefixes.length,
+                                             codePointBuild * 1000));
+        }
+        System.out.println("(score " + score + ")");
+    }
+
+    /**
+     * Generates distinct terms drawn from several scripts.
+     * @param N Number of terms.
+     * @param random Source of randomness.
+     * @return Array of terms.
+     */
+    static String[] syntheticTerms(int N, Random random) {
+        int[][] scripts = {
+            {'a', 26}, {0xE0, 32}, {0x4E00, 2000}, {0x3041, 80}, {0x1F600, 64}
+        };
+        LinkedHashSet<String> set = new LinkedHashSet<String>();
+        while (set.size() < N) {
+            int[] script = scripts[random.nextInt(scripts.length)];
+            StringBuilder sb = new StringBuilder();
+            int length = 2 + random.nextInt(8);
+            for (int i = 0; i < length; i += 1) {
+                sb.appendCodePoint(script[0] + random.nextInt(script[1]));
+            }
+            set.add(sb.toString());
+        }
+        return set.toArray(new String[N]);
+    }
+
+    /**
+      * TST over code points that supports insert and traversal to find the maximum
+      * valued words with a given prefix.
+      */
+    private class CodePointTST {
+        private Node root;
+
+        /**
+          * A single node in the TST.
+          */
+        private class Node {
+            private boolean exists;
+            private int letter;
+            private Node left, mid, right;
+            private String word;
+            private double weight;
+            private double maxWeight;
+        }
+
+        /**
+          * Insert method to insert a word with a weight into the Trie.
+          * @param key Code points of the normalized word.
+          * @param word Word returned for this key.
+          * @param weight Weight of the word.
+          */
+        public void insert(int[] key, String word, double weight) {
+            root = insert(root, key, word, weight, 0);
+        }
+
+        /**
+          * Recursive insert method to insert the word into the Trie.
+          * @param x Current Node
+          * @param key Code points of the normalized word.
+          * @param word Word returned for this key.
+          * @param weight Weight of the word.
+          * @param d Represents index of code point in the key represented by the current node.
+          * @return current Node
+          */
+        private Node insert(Node x, int[] key, String word, double weight, int d) {
+            int c = key[d];
+            if (x == null) {
+                x = new Node();
+                x.letter = key[d];
+                x.maxWeight = weight;
+            }
+            if (x.maxWeight < weight) {
+                x.maxWeight = weight;
+            }
+
+            if (c < x.letter) {
+                x.left = insert(x.left, key, word, weight, d);
+            } else if (c > x.letter) {
+                x.right = insert(x.right, key, word, weight, d);
+            } else if (d < key.length - 1) {
+                x.mid = insert(x.mid, key, word, weight, d + 1);
+            } else {
+                x.exists = true;
+                x.weight = weight;
+                x.word = word;
+            }
+            return x;
+        }
+
+        /**
+          * Traverses the Trie to get to the node that represents the end of the key.
+          * @param key Code points of the prefix.
+          * @return Node representing end of the key, or null.
+          */
+        private Node getNode(int[] key) {
+            Node x = root;
+            int d = 0;
+            while (x != null) {
+                int c = key[d];
+                if (c < x.letter) {
+                    x = x.left;
+                } else if (c > x.letter) {
+                    x = x.right;
+                } else if (d < key.length - 1) {
+                    x = x.mid;
+                    d += 1;
+                } else {
+                    return x;
+                }
+            }
+            return null;
+        }
+
+        /**
+          * Lazily yields the words with a given prefix in descending order of weight,
+          * expanding subtrees best-first by maxWeight.
+          */
+        private class CompletionIterator implements Iterator<String> {
+            private PriorityQueue<Node> words;
+            private PriorityQueue<Node> pq;
+
+            /**
+              * @param prefix Code points of the normalized prefix.
+              */
+            CompletionIterator(int[] prefix) {
+                words = new PriorityQueue<Node>(16, new WeightComparator());
+                pq = new PriorityQueue<Node>(16, new MaxWeightComparator());
+                if (prefix.length == 0) {
+                    if (root != null) {
+                        pq.add(root);
+                    }
+                    return;
+                }
+
+                Node pointer = getNode(prefix);
+                if (pointer == null) {
+                    return;
+                }
+                if (pointer.exists) {
+                    words.add(pointer);
+                }
+                if (pointer.mid != null) {
+                    pq.add(pointer.mid);
+                }
+            }
+
+            /**
+              * Expands subtrees until the heaviest known word is certain to be next.
+              * @return true if there is another word.
+              */
+            public boolean hasNext() {
+                while (!pq.isEmpty()
+                       && (words.isEmpty() || words.peek().weight < pq.peek().maxWeight)) {
+                    Node x = pq.poll();
+                    if (x.exists) {
+                        words.add(x);
+                    }
+                    if (x.left != null) {
+                        pq.add(x.left);
+                    }
+                    if (x.right != null) {
+                        pq.add(x.right);
+                    }
+                    if (x.mid != null) {
+                        pq.add(x.mid);
+                    }
+                }
+                return !words.isEmpty();
+            }
+
+            /** @return The next heaviest word. */
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return words.poll().word;
+            }
+        }
+
+        /**
+          * Recursively records every node below x. Depth is measured in TST links.
+          * @param x Current node.
+          * @param depth Depth of x.
+          * @param stats Report being filled in.
+          */
+        private void stats(Node x, int depth, TrieStats stats) {
+            if (x == null) {
+                return;
+            }
+            int children = (x.left != null ? 1 : 0) + (x.mid != null ? 1 : 0)
+                           + (x.right != null ? 1 : 0);
+            stats.recordNode(depth, children, x.exists);
+            // Flag, letter, three links, word and the enclosing instance; weights counted apart.
+            long total = TrieStats.objectBytes(1 + 4 + 5 * TrieStats.REF + 16);
+            stats.addNodeBytes(total - 16);
+            stats.addWeightBytes(16);
+            stats.addStringBytes(TrieStats.stringBytes(x.word));
+            stats(x.left, depth + 1, stats);
+            stats(x.mid, depth + 1, stats);
+            stats(x.right, depth + 1, stats);
+        }
+
+        /**
+          * Reverse order comparator that compares by weight.
+          */
+        private class WeightComparator implements Comparator<Node> {
+            public int compare(Node n1, Node n2) {
+                return Double.compare(n2.weight, n1.weight);
+            }
+        }
+
+        /**
+          * Reverse order comparator that compares by maxWeight.
+          */
+        private class MaxWeightComparator implements Comparator<Node> {
+            public int compare(Node n1, Node n2) {
+                return Double.compare(n2.maxWeight, n1.maxWeight);
+            }
+        }
+    }
+}
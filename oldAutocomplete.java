@@ -1,11 +1,8 @@
 import java.util.LinkedList;
 import java.util.HashMap;
-import java.util.TreeSet;
 import java.util.LinkedHashSet;
-import java.util.SortedSet;
-import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.Comparator;
-import java.util.Collections;
 /**
  * Implements autocomplete on prefixes for a given dictionary of terms and weights.
  * @Author William Zhuang
@@ -201,6 +198,9 @@ public class oldAutocomplete {
 
             // Completed going through the word. 
             if (d == key.length()) {
+                if (weight > x.maxWeight) {
+                    x.maxWeight = weight;
+                }
                 x.exists = true;
                 x.weight = weight;
                 x.word = key;
@@ -221,53 +221,36 @@ public class oldAutocomplete {
 
         /** 
           * Finds the top k words that contain the given prefix. 
+          * Expands subtrees in order of maxWeight and only returns a word once no
+          * unexpanded subtree could hold a heavier one.
           * @param prefix String of the prefix 
           * @param k Number of top words wanted.
           */
         public Iterable<String> topMatches(String prefix, int k) {
-            int origK = k;
-            k = k * 2;
-
-            TreeSet<Node> bestAnswer = new TreeSet<Node>(new DupeNodeComparator());
+            LinkedHashSet<String> answers = new LinkedHashSet<String>();
             Node pointer = root;
-            String word = prefix;
 
             // Get through the prefix.
-            if (!prefix.startsWith("\"") && !prefix.endsWith("\"")) { 
-                for (int i = 0; i < prefix.length(); i += 1) {
-                    char c = prefix.charAt(i);
-                    pointer = pointer.links.get(c);
+            for (int i = 0; i < prefix.length(); i += 1) {
+                char c = prefix.charAt(i);
+                pointer = pointer.links.get(c);
+                if (pointer == null) {
+                    return answers;
                 }
             }
 
-            // Find the best k answers.
-            // Go through the children in order of greatest size.
-            TreeSet<Node> nodeTree = new TreeSet<Node>(new NodeComparator());
+            PriorityQueue<Node> words = new PriorityQueue<Node>(16, new NodeComparator());
+            PriorityQueue<Node> nodeTree = new PriorityQueue<Node>(16, new DupeNodeComparator());
             nodeTree.add(pointer);
-            nodeTree.addAll(pointer.links.values());
-
-            for (Node x : nodeTree) {
-
-                if (x.exists) {
-                    bestAnswer.add(x);
-                }
-                NavigableSet<Node> bestAbove = bestAnswer.headSet(x, true);
-                if (bestAbove.size() > k) {
-                    continue;
-                } 
-                nodeTraversal(x, bestAnswer, k);
-            }
-            // Resorting answers according to actual weight.
-            TreeSet<Node> tempAnswers = new TreeSet<Node>(new NodeComparator());
-            tempAnswers.addAll(bestAnswer);
-            // Extract best words associated with bestAnswer.
-            LinkedHashSet<String> answers = new LinkedHashSet<String>();
 
-            // Sort bestAnswers by highest weight. 
-            for (Node x : tempAnswers) {
-                answers.add(x.word);
-                if (answers.size() == origK) {
+            while (answers.size() < k) {
+                if (!words.isEmpty() 
+                    && (nodeTree.isEmpty() || words.peek().weight >= nodeTree.peek().maxWeight)) {
+                    answers.add(words.poll().word);
+                } else if (nodeTree.isEmpty()) {
                     break;
+                } else {
+                    nodeTraversal(nodeTree.poll(), words, nodeTree);
                 }
             }
 
@@ -275,31 +258,18 @@ public class oldAutocomplete {
         }
 
         /** 
-          * Traverses the child nodes selectively by only traversing nodes that may contain 
-          * candidates for the top k matches. 
+          * Expands a single node: its word becomes a candidate and its children are
+          * queued for expansion.
           * @param x Current Node being examined. 
-          * @param bestAnswer TreeSet containing all the Nodes that were possible candidates.
-          * @param k int representing the number of topMatches wanted.
+          * @param words PriorityQueue of words that have been found but not returned.
+          * @param nodeTree PriorityQueue of subtrees that have not been expanded.
           */
-
-        private void nodeTraversal(Node x, TreeSet<Node> bestAnswer, int k) {
-            TreeSet<Node> nodeTree = new TreeSet<Node>(new NodeComparator());
-            nodeTree.addAll(x.links.values());
-            // Add the children to the best answer.
-            // Check if there are k bestAnswers that are already greater than the child node.
-            // If so, break.
-            for (Node n : nodeTree) {
-                if (n.exists) {
-                    bestAnswer.add(n);
-
-                }
-                NavigableSet<Node> bestAbove = bestAnswer.headSet(n, true);
-                if (bestAbove.size() > k) {
-                    continue;
-                }
-
-                nodeTraversal(n, bestAnswer, k);
+        private void nodeTraversal(Node x, PriorityQueue<Node> words, 
+                                   PriorityQueue<Node> nodeTree) {
+            if (x.exists) {
+                words.add(x);
             }
+            nodeTree.addAll(x.links.values());
         }
 
         /** 